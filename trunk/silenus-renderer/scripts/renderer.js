@@ -37,12 +37,19 @@ define(["imageLoader", "compose"], function (imageLoader, Compose) {
 		// this array is filled as the masked versions are encountered during the first draw cycle
 		this.maskedInstanceCache = [];
 		
+		// the bitmaps are packed into texture atlas pages - load all pages
+		if (json.atlas) {
+			for (var i = 0; i < json.atlas.length; ++i) {
+				imageLoader.loadImage(json.atlas[i].path);
+			}
+		}
+		
 		// go over all instances, and load them
 		for (var i = 0; i < json.instances.length; ++i) {
 			var instance = json.instances[i];
 			
-			// this is a bitmap type - load the image
-			if (instance.type == "bitmap") {
+			// this is a bitmap type - load the image, unless it is on an atlas page
+			if (instance.type == "bitmap" && instance.path) {
 				imageLoader.loadImage(instance.path);
 			}
 			if (instance.type == "shape") {
@@ -107,8 +114,7 @@ define(["imageLoader", "compose"], function (imageLoader, Compose) {
 				
 				// now draw the actual stuff
 				if (type == "bitmap") {
-					var img = imageLoader.getImage(baseInstance.path);
-					ctx.drawImage(img, 0, 0);
+					this.drawBitmap(ctx, baseInstance);
 				}
 				else if (type == "shape") {
 					
@@ -144,12 +150,12 @@ define(["imageLoader", "compose"], function (imageLoader, Compose) {
 				
 				// bitmaps clip their entire region, so we draw the contours
 				if (type == "bitmap") {
-					var img = imageLoader.getImage(baseInstance.path);
+					var size = this.getBitmapSize(baseInstance);
 					ctx.beginPath();
 					ctx.moveTo(0, 0);
-					ctx.lineTo(img.width, 0);
-					ctx.lineTo(img.width, img.height);
-					ctx.lineTo(0, img.height);
+					ctx.lineTo(size.width, 0);
+					ctx.lineTo(size.width, size.height);
+					ctx.lineTo(0, size.height);
 					ctx.lineTo(0, 0);
 					ctx.clip();
 				}
@@ -174,6 +180,25 @@ define(["imageLoader", "compose"], function (imageLoader, Compose) {
 			
 		},
 		
+		// draw a bitmap at the origin - either its own image, or its region of an atlas page
+		drawBitmap: function(ctx, instance) {
+			if (instance.rect) {
+				var page = imageLoader.getImage(this.json.atlas[instance.page].path);
+				var r = instance.rect;
+				ctx.drawImage(page, r[0], r[1], r[2], r[3], 0, 0, r[2], r[3]);
+			}
+			else {
+				ctx.drawImage(imageLoader.getImage(instance.path), 0, 0);
+			}
+		},
+		
+		// get the size of a bitmap
+		getBitmapSize: function(instance) {
+			if (instance.rect) return { width: instance.rect[2], height: instance.rect[3] };
+			var img = imageLoader.getImage(instance.path);
+			return { width: img.width, height: img.height };
+		},
+		
 		getCanvas: function() {
 			return this.canvas;
 		},
@@ -4,8 +4,6 @@ import java.awt.*;
 import java.awt.geom.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.RescaleOp;
-import java.io.File;
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -14,7 +12,6 @@ import java.util.Timer;
 import java.util.TimerTask;
 import java.util.Vector;
 
-import javax.imageio.ImageIO;
 import javax.swing.JPanel;
 
 import com.silenistudios.silenus.dom.Bitmap;
@@ -53,7 +50,7 @@ public class JavaRenderer extends JPanel implements RenderInterface, ShapeRender
 	int fFrame = 0;
 	
 	// images
-	Map<String, BufferedImage> fImages = new HashMap<String, BufferedImage>();
+	Map<Bitmap, BufferedImage> fImages = new HashMap<Bitmap, BufferedImage>();
 	
 	// the scene
 	Timeline fScene;
@@ -75,14 +72,14 @@ public class JavaRenderer extends JPanel implements RenderInterface, ShapeRender
 		// set the renderer
 		fRenderer = new SceneRenderer(fScene, this);
 		
-		// load all images
+		// load all images - these are decoded in memory, without the need to write them to disk first
 		Set<Bitmap> bitmaps = fScene.getUsedImages();
 		for (Bitmap bitmap : bitmaps) {
 			BufferedImage img;
 			try {
-				img = ImageIO.read(new File(bitmap.getAbsolutePath()));
-				fImages.put(bitmap.getAbsolutePath(), img);
-			} catch (IOException e) {
+				img = bitmap.getImage();
+				fImages.put(bitmap, img);
+			} catch (ParseException e) {
                 e.printStackTrace();
 			}
 		}
@@ -170,7 +167,7 @@ public class JavaRenderer extends JPanel implements RenderInterface, ShapeRender
 		if (fCurrentColorManipulation != null) {
 			
 			// get the original image
-			BufferedImage img = fImages.get(bitmap.getAbsolutePath());
+			BufferedImage img = fImages.get(bitmap);
 			
 			// set up the rescale operation
 			RescaleOp rescaleOp = new RescaleOp(new float[]{
@@ -195,7 +192,7 @@ public class JavaRenderer extends JPanel implements RenderInterface, ShapeRender
 		
 		// no color manipulation
 		else {
-			fSurface.drawImage(fImages.get(bitmap.getAbsolutePath()), new AffineTransform(1f,0f,0f,1f,0,0), null);
+			fSurface.drawImage(fImages.get(bitmap), new AffineTransform(1f,0f,0f,1f,0,0), null);
 		}
 		
 		// only apply to one image
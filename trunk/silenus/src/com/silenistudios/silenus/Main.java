@@ -5,6 +5,7 @@ import java.awt.Container;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 
@@ -12,6 +13,7 @@ import java.io.IOException;
 import javax.swing.JFrame;
 
 import com.silenistudios.silenus.raw.AnimationData;
+import com.silenistudios.silenus.raw.TextureAtlas;
 
 /**
  * This demo will take any XFL directory from the command line, and render it to screen.
@@ -37,9 +39,6 @@ public class Main {
 			System.out.println("Parsing document in directory '" + directoryName + "'");
 			xfl.parseXFL(directoryName);
 			
-			System.out.println("Used images...");
-			xfl.getScene().getUsedImages();
-			
 			// draw document
 			System.out.println("Drawing document...");
 			
@@ -61,12 +60,25 @@ public class Main {
 		// perform a raw data renderer and save to file
 		RawDataRenderer raw = new RawDataRenderer(xfl.getScene(), xfl.getWidth(), xfl.getHeight(), xfl.getFrameRate());
 		AnimationData data = raw.getAnimationData();
+        String path = "D:/www/silenus-renderer/upload/data.json";
+        if (args.length > 1) {
+            path = args[1];
+        }
+		
+		// pack the used images into texture atlas pages next to the json file, so they can be loaded in one go
+		// the images are decoded straight from the binary data - only the ones that don't fit in the atlas
+		// are converted to png, when the json refers to them
+		try {
+			TextureAtlas atlas = new TextureAtlas("atlas", xfl.getScene().getUsedImages(), 2, 2048, 2048);
+			atlas.write(new DefaultStreamFactory(), new File(path).getAbsoluteFile().getParent(), null);
+			data.setAtlas(atlas);
+		}
+		catch (ParseException e) {
+			e.printStackTrace();
+		}
+		
 		String json = data.getJSON();
 		try {
-            String path = "D:/www/silenus-renderer/upload/data.json";
-            if (args.length > 1) {
-                path = args[1];
-            }
 			BufferedWriter writer = new BufferedWriter(new FileWriter(path));
 			writer.write(json);
 			writer.close();
@@ -1,8 +1,6 @@
 package com.silenistudios.silenus;
 
-import java.util.Collection;
 import java.util.Stack;
-import java.util.Vector;
 
 import com.silenistudios.silenus.dom.BitmapInstance;
 import com.silenistudios.silenus.dom.Instance;
@@ -50,9 +48,8 @@ public class SceneRenderer {
 	public void render(int frame) {
 		
 		// draw the different layers in order
-		Vector<Layer> layers = fScene.getLayers();
-		for (Layer layer : layers) {
-			drawLayer(layer, frame, frame, false);
+		for (int i = 0; i < fScene.getLayerCount(); ++i) {
+			drawLayer(fScene.getLayer(i), frame, frame, false);
 		}
 	}
 	
@@ -76,12 +73,12 @@ public class SceneRenderer {
 		
 		// there is a next frame - interpolate
 		if (f1.hasNextKeyframe() && f1.isTween()) {
-			interpolateFrames(layer, f1, f1.getNextKeyframe(), frame, correctedFrame);
+			interpolateFrames(f1, f1.getNextKeyframe(), frame, correctedFrame);
 		}
 		
 		// there is no next keyframe - just draw the first frame
 		else {
-			interpolateFrames(layer, f1, f1, frame, correctedFrame);
+			interpolateFrames(f1, f1, frame, correctedFrame);
 		}
 		
 		// we drew the mask - now draw the actual masked layers
@@ -93,9 +90,8 @@ public class SceneRenderer {
 		}
 		
 		// draw children if we have any
-		Vector<Layer> children = layer.getChildLayers();
-		for (Layer child : children) {
-			drawLayer(child, frame, correctedFrame, true);
+		for (int i = 0; i < layer.getChildLayerCount(); ++i) {
+			drawLayer(layer.getChildLayer(i), frame, correctedFrame, true);
 		}
 		
 		// let the renderer know we're done masking
@@ -107,7 +103,7 @@ public class SceneRenderer {
 	
 	
 	// interpolate between two frames f1 and f2 (f0 is the frame already rendered - the previous frame)
-	private void interpolateFrames(Layer layer, Keyframe f1, Keyframe f2, int frame, int correctedFrame) {
+	private void interpolateFrames(Keyframe f1, Keyframe f2, int frame, int correctedFrame) {
 		
 		// compute the distance between the two, unless it's the same frame (aka, there is no tween)
 		double d = 0;
@@ -117,23 +113,15 @@ public class SceneRenderer {
 		d = f1.computeEase(d);
 		
 		// walk over all instances
-		Collection<Instance> instances = f1.getlInstances();
-		for (Instance i1 : instances) {
+		for (int i = 0; i < f1.getInstanceCount(); ++i) {
+			Instance i1 = f1.getInstance(i);
 			
-			// get the instance in the second frame
-			Instance i2 = f2.getInstance(i1.getLibraryItemName());
-			
-			// no instance found in second frame, or no tween - just tween between ourselves
-			if (i2 == null) i2 = i1;
-			
-			// we find the first occurence of this instance in the layer - so we can correct the frame
-			Keyframe f0 = layer.getFirstKeyframe(i1.getLibraryItemName());
-			
-			// we get the first frame defined in this keyframe - this defines the offset at which we render the symbol
-			int firstFrame = f0.getInstance(i1.getLibraryItemName()).getFirstFrame();
+			// get the instance in the second frame - if there is none, or no tween, this is the instance itself
+			// this was resolved when the layer was loaded
+			Instance i2 = i1.getTweenPartner();
 			
-			// correct the frame to match the first frame
-			int instanceCorrectedFrame = frame - f0.getIndex() + firstFrame;
+			// correct the frame to match the first frame defined by the first occurence of this instance in the layer
+			int instanceCorrectedFrame = frame + i1.getFrameOffset();
 			
 			// save transformation matrix
 			fRenderer.save();
@@ -7,17 +7,30 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
+import com.silenistudios.silenus.cache.ConversionCache;
+import com.silenistudios.silenus.dat.PNGEncoder;
 import com.silenistudios.silenus.dom.*;
 import com.silenistudios.silenus.xml.XMLUtility;
 import com.silenistudios.silenus.xml.Node;
-import com.silenistudios.silenus.xml.java.JavaXMLUtility;
+import com.silenistudios.silenus.xml.RootParser;
+import com.silenistudios.silenus.xml.stax.StaxXMLUtility;
+import com.silenistudios.silenus.zip.ArchiveStreamFactory;
+import com.silenistudios.silenus.zip.MappedZipStreamFactory;
 
 /**
  * This class will parse an entire XFL scene and generate keyframe data for all objects.
@@ -33,8 +46,8 @@ public class XFLDocument implements XFLLibrary{
 	// renderer
 	RenderInterface fRenderer;
 	
-	// XML Utility
-	XMLUtility XMLUtility = new JavaXMLUtility();
+	// XML Utility - the indexed StAX utility by default, use setXMLUtility for a different parser
+	XMLUtility XMLUtility = new StaxXMLUtility();
 	
 	// map of all bitmaps
 	Map<String, Bitmap> fBitmaps = new HashMap<String, Bitmap>();
@@ -60,6 +73,35 @@ public class XFLDocument implements XFLLibrary{
 	// the output stream factory
 	StreamFactory fStreamFactory = new DefaultStreamFactory();
 	
+	// cache for converted bitmaps, if any
+	ConversionCache fConversionCache = null;
+	
+	// encoder for the png's converted from the binary data, or null to use the default one
+	PNGEncoder fPNGEncoder = null;
+	
+	// name of the only scene to load, or null to load all of them
+	String fSelectedScene = null;
+	
+	// while loading a single scene: the includes of the library, by name, and the factory to read them from
+	Map<String, String> fIncludes = null;
+	Vector<Node> fIncludeNodes = null;
+	StreamFactory fIncludeFactory = null;
+	
+	// are the names in fIncludes read from the includes themselves, rather than derived from their hrefs?
+	boolean fIncludesByName;
+	
+	// first symbol that failed to load on demand
+	ParseException fIncludeError = null;
+	
+	// archive the document was read from, kept open for the bitmaps that haven't been converted yet
+	ArchiveStreamFactory fArchive = null;
+	
+	// executor used for loading, or null to load on the calling thread
+	ExecutorService fExecutor = null;
+	
+	// images that are being converted in the background by convertUsedImages
+	Vector<Future<?>> fConversions = new Vector<Future<?>>();
+	
 	// create an XFL parser
 	public XFLDocument() {
 	}
@@ -71,6 +113,34 @@ public class XFLDocument implements XFLLibrary{
 	}
 	
 	
+	// set the cache used to avoid converting the same bitmap data over and over again
+	public void setConversionCache(ConversionCache cache) {
+		fConversionCache = cache;
+	}
+	
+	
+	// set the encoder used to write the png's that are converted from the binary data - this chooses the filter and deflate level,
+	// and can filter the rows of each image in parallel. Images are converted in parallel on the executor set with setExecutor.
+	public void setPNGEncoder(PNGEncoder encoder) {
+		fPNGEncoder = encoder;
+	}
+	
+	
+	// set the executor used to load the document - includes are parsed and symbols (including their shapes)
+	// are loaded in parallel on it, and convertUsedImages converts the images on it. The executor is not shut down by the document.
+	// Without an executor, everything is loaded on the calling thread.
+	public void setExecutor(ExecutorService executor) {
+		fExecutor = executor;
+	}
+	
+	
+	// only load the scene with the given name, together with the symbols and bitmaps it uses, directly or through other symbols
+	// the rest of the library is never parsed or converted. Pass null to load the entire document again.
+	public void setSelectedScene(String name) {
+		fSelectedScene = name;
+	}
+	
+	
 	// set XML utility
 	public void setXMLUtility(XMLUtility XMLUtility) {
 		this.XMLUtility = XMLUtility;
@@ -94,17 +164,13 @@ public class XFLDocument implements XFLLibrary{
 			if (splitPathName[splitPathName.length-1].equalsIgnoreCase("fla")) {
 				
 				// update path name to remove the filename
-				splitPathName = pathName.split("[\\/]+");
-				StringBuilder ss = new StringBuilder();
-				for (int i = 0; i < splitPathName.length-1; ++i) {
-					ss.append(splitPathName[i]).append("/");
-				}
+				String directory = getDirectory(pathName);
 				
 				// unzip
-				unzipFLA(pathName, ss.toString());
+				unzipFLA(pathName, directory);
 				
 				// update path name
-				pathName = ss.toString();
+				pathName = directory;
 			}
 		}
 		
@@ -113,7 +179,147 @@ public class XFLDocument implements XFLLibrary{
 		
 		// read DOMDocument.xml, the root document
 		Node rootNode = XMLUtility.parseXML(fStreamFactory, fRoot, "DOMDocument.xml");
-		loadDOMDocument(rootNode);
+		loadDOMDocument(fStreamFactory, rootNode);
+	}
+	
+	
+	// parse a CS5 .FLA file without extracting it - the file is memory-mapped, and all files are read straight out of the archive
+	// only when they are needed
+	// files that are generated while parsing (png's reconstructed from binary data) are still written
+	// through the stream factory, in the directory that contains the .FLA file
+	public void parseFLA(String fileName) throws ParseException {
+		
+		// the archive is mounted on the directory that contains it
+		fRoot = getDirectory(fileName);
+		
+		// open the archive
+		ArchiveStreamFactory factory;
+		try {
+			factory = new MappedZipStreamFactory(new File(fileName), fRoot, fStreamFactory);
+		}
+		catch (FileNotFoundException e) {
+			throw new ParseException("File not found: '" + fileName + "'", e);
+		}
+		catch (IOException e) {
+			throw new ParseException("Failed to read FLA (zip) file '" + fileName + "'. Perhaps you are uploading a CS4 or older FLA file?", e);
+		}
+		
+		// parse it
+		parseArchive(factory);
+	}
+	
+	
+	// parse a CS5 .FLA file that is held in a buffer, without copying or extracting it
+	// files that are generated while parsing (png's reconstructed from binary data) are written through the
+	// stream factory, below the given root directory
+	public void parseFLA(ByteBuffer archive, String root) throws ParseException {
+		fRoot = root;
+		
+		// index the archive
+		ArchiveStreamFactory factory;
+		try {
+			factory = new MappedZipStreamFactory(archive, fRoot, fStreamFactory);
+		}
+		catch (IOException e) {
+			throw new ParseException("Failed to read FLA (zip) data. Perhaps you are uploading a CS4 or older FLA file?", e);
+		}
+		
+		// parse it
+		parseArchive(factory);
+	}
+	
+	
+	// parse a CS5 .FLA file from a stream, for example an upload - the stream is read once, and is not closed
+	// files that are generated while parsing (png's reconstructed from binary data) are written through the
+	// stream factory, below the given root directory
+	public void parseFLA(InputStream in, String root) throws ParseException {
+		
+		// the central directory is at the end of the archive, so we need all of it before we can start
+		ByteBuffer archive;
+		try {
+			archive = readFully(in);
+		}
+		catch (IOException e) {
+			throw new ParseException("Failed to read FLA (zip) data: " + e.getMessage(), e);
+		}
+		parseFLA(archive, root);
+	}
+	
+	
+	// parse DOMDocument.xml and everything it refers to out of an archive
+	// the archive is kept open afterwards, as the bitmaps are converted out of it when they are first needed
+	private void parseArchive(ArchiveStreamFactory factory) throws ParseException {
+		close();
+		boolean success = false;
+		try {
+			Node rootNode = XMLUtility.parseXML(factory, fRoot, "DOMDocument.xml");
+			loadDOMDocument(factory, rootNode);
+			success = true;
+		}
+		finally {
+			if (success) fArchive = factory;
+			else closeArchive(factory);
+		}
+	}
+	
+	
+	// close the archive the document was read from, if any. Bitmaps that haven't been converted yet can't be converted afterwards.
+	// images that are still being converted by convertUsedImages are finished first
+	// this is only needed for documents parsed with parseFLA
+	public void close() {
+		try {
+			waitForConversions();
+		}
+		catch (ParseException e) {
+			// the archive has to be closed anyway
+		}
+		if (fArchive != null) closeArchive(fArchive);
+		fArchive = null;
+	}
+	
+	
+	// close an archive
+	private static void closeArchive(ArchiveStreamFactory factory) {
+		try {
+			factory.close();
+		}
+		catch (IOException e) {
+			// nothing left to read from it anyway
+		}
+	}
+	
+	
+	// read an entire stream into a buffer
+	// the buffer is sized to what the stream says is available, and only grows if more data actually arrives - when
+	// available() reports the exact size, the data is read straight into its final array without any copying
+	private static ByteBuffer readFully(InputStream in) throws IOException {
+		byte[] data = new byte[Math.max(in.available(), 1)];
+		int size = 0;
+		int n;
+		while (true) {
+			
+			// the buffer is full - see if there's more before making room for it
+			if (size == data.length) {
+				int b = in.read();
+				if (b == -1) break;
+				data = Arrays.copyOf(data, Math.max(data.length * 2, 65536));
+				data[size++] = (byte)b;
+			}
+			if ((n = in.read(data, size, data.length - size)) == -1) break;
+			size += n;
+		}
+		return ByteBuffer.wrap(data, 0, size);
+	}
+	
+	
+	// get the directory a file is in, including the trailing "/"
+	private String getDirectory(String fileName) {
+		String[] splitPathName = fileName.split("[\\/]+");
+		StringBuilder ss = new StringBuilder();
+		for (int i = 0; i < splitPathName.length-1; ++i) {
+			ss.append(splitPathName[i]).append("/");
+		}
+		return ss.toString();
 	}
 	
 	
@@ -167,7 +373,7 @@ public class XFLDocument implements XFLLibrary{
 	
 	
 	// load the DOM document
-	private void loadDOMDocument(Node root) throws ParseException {
+	private void loadDOMDocument(final StreamFactory factory, Node root) throws ParseException {
 		
 		// width and height
 		fWidth = XMLUtility.getIntAttribute(root, "width", 550);
@@ -179,11 +385,17 @@ public class XFLDocument implements XFLLibrary{
 		// load the media and convert the binary files back to png
 		if (XMLUtility.hasNode(root, "media")) {
 			Node media = XMLUtility.findNode(root,  "media");
-			Vector<Node> bitmaps = XMLUtility.findNodes(media, "DOMBitmapItem");
-			for (Node node : bitmaps) {
-				Bitmap bitmap = new Bitmap(XMLUtility, fStreamFactory, fRoot, node);
+			Vector<Node> bitmapNodes = XMLUtility.findNodes(media, "DOMBitmapItem");
+			for (Node node : bitmapNodes) {
+				Bitmap bitmap = new Bitmap(XMLUtility, fRoot, node);
 				fBitmaps.put(bitmap.getName(), bitmap);
 			}
+			
+			// bitmaps are converted when they are first needed, so the ones that are never drawn are never converted
+			for (Bitmap bitmap : fBitmaps.values()) {
+				bitmap.setEncoder(fPNGEncoder);
+				bitmap.convertOnDemand(factory, fConversionCache);
+			}
 		}
 		
 		
@@ -191,45 +403,206 @@ public class XFLDocument implements XFLLibrary{
 		if (XMLUtility.hasNode(root,  "symbols")) {
 			Node symbols = XMLUtility.findNode(root, "symbols");
 			Vector<Node> includes = XMLUtility.findNodes(symbols, "Include");
-			Map<String, Node> nameToNode = new HashMap<String, Node>();
-			for (Node node : includes) 	loadInclude(nameToNode, node);
 			
-			// now, load the graphics
-			// by using this trick, we can resolve references immediately
-			for (Entry<String, Node> entry : nameToNode.entrySet()) {
-				getGraphic(entry.getKey()).loadGraphic(XMLUtility, this, entry.getValue());
+			// when loading a single scene, we only remember where the symbols are - they are loaded once the scene refers to them
+			if (fSelectedScene != null) {
+				fIncludes = new HashMap<String, String>();
+				for (Node node : includes) {
+					String href = XMLUtility.getAttribute(node, "href");
+					if (href.endsWith(".xml")) fIncludes.put(href.substring(0, href.length() - 4), href);
+				}
+				fIncludeNodes = includes;
+				fIncludesByName = false;
+				fIncludeFactory = factory;
 			}
+			
+			// otherwise, load all of them
+			else loadIncludes(factory, includes);
 		}
 		
 		// read the scenes
 		Vector<Node> scenes = XMLUtility.findNodes(root, "DOMTimeline");
-		for (Node node : scenes) {
-			Timeline timeline = new Timeline(XMLUtility, this, node);
-			fScenes.put(timeline.getName(), timeline);
+		try {
+			for (Node node : scenes) {
+				if (fSelectedScene != null && !fSelectedScene.equals(XMLUtility.getAttribute(node, "name", ""))) continue;
+				Timeline timeline = new Timeline(XMLUtility, this, node);
+				fScenes.put(timeline.getName(), timeline);
+			}
+		}
+		finally {
+			
+			// stop loading symbols on demand
+			fIncludes = null;
+			fIncludeNodes = null;
+			fIncludeFactory = null;
+		}
+		
+		// single scene: make sure it was there
+		if (fSelectedScene != null) {
+			if (fIncludeError != null) {
+				ParseException e = fIncludeError;
+				fIncludeError = null;
+				throw e;
+			}
+			if (!fScenes.containsKey(fSelectedScene)) throw new ParseException("Scene '" + fSelectedScene + "' not found in the document");
 		}
 	}
 	
 	
-	// load an include from a separate XML
-	private void loadInclude(final Map<String, Node> nameToNode, Node node) throws ParseException {
+	// load all symbols in the library
+	private void loadIncludes(final StreamFactory factory, Vector<Node> includes) throws ParseException {
 		
-		// get the href
-		String href = XMLUtility.getAttribute(node, "href");
+		// read the root element of every include, and create the placeholders in document order
+		Vector<Node> includeRoots = readIncludeRoots(factory, includes);
+		Map<String, String> nameToHref = new LinkedHashMap<String, String>();
+		for (int i = 0; i < includes.size(); ++i) loadInclude(nameToHref, XMLUtility.getAttribute(includes.get(i), "href"), includeRoots.get(i));
 		
-		// load the XML file
-		Node include = XMLUtility.parseXML(fStreamFactory, fRoot, "LIBRARY/" + href);
+		// now, load the graphics
+		// by using this trick, we can resolve references immediately - which also means the graphics
+		// don't depend on each other while loading, so they can be loaded in any order, or in parallel
+		// each include is parsed only when its graphic is loaded, and dropped right after,
+		// so only one symbol per thread is in memory at any time
+		Vector<Callable<Object>> graphics = new Vector<Callable<Object>>();
+		for (Entry<String, String> entry : nameToHref.entrySet()) {
+			final Graphic graphic = getGraphic(entry.getKey());
+			final String href = entry.getValue();
+			graphics.add(new Callable<Object>() {
+				@Override
+				public Object call() throws ParseException {
+					Node include = XMLUtility.parseXML(factory, fRoot, "LIBRARY/" + href);
+					graphic.loadGraphic(XMLUtility, XFLDocument.this, include);
+					return null;
+				}
+			});
+		}
+		runAll(graphics);
+	}
+	
+	
+	// read the root element of the XML of every include
+	private Vector<Node> readIncludeRoots(final StreamFactory factory, Vector<Node> includes) throws ParseException {
+		Vector<Callable<Node>> headers = new Vector<Callable<Node>>();
+		for (Node node : includes) {
+			final String href = XMLUtility.getAttribute(node, "href");
+			headers.add(new Callable<Node>() {
+				@Override
+				public Node call() throws ParseException {
+					return parseXMLRoot(factory, "LIBRARY/" + href);
+				}
+			});
+		}
+		return runAll(headers);
+	}
+	
+	
+	// parse only the root element of a document, if the XML utility can do that - otherwise, the whole document is parsed
+	private Node parseXMLRoot(StreamFactory factory, String fileName) throws ParseException {
+		if (XMLUtility instanceof RootParser) return ((RootParser)XMLUtility).parseXMLRoot(factory, fRoot, fileName);
+		return XMLUtility.parseXML(factory, fRoot, fileName);
+	}
+	
+	
+	// convert all images used in a scene ahead of time, rather than one by one as they are first needed
+	// with an executor, this returns immediately and the images are converted in the background - an image
+	// that is requested while it's still being converted waits for it. Without an executor, all images are converted right away.
+	// Call waitForConversions before writing anything that reads the converted images from disk.
+	public void convertUsedImages(Timeline scene) {
+		for (final Bitmap bitmap : scene.getUsedImages()) {
+			if (fExecutor == null) bitmap.convert();
+			else {
+				fConversions.add(fExecutor.submit(new Runnable() {
+					@Override
+					public void run() {
+						bitmap.convert();
+					}
+				}));
+			}
+		}
+	}
+	
+	
+	// wait until all images that convertUsedImages is converting in the background are done
+	// the first conversion that failed determines the exception that is thrown
+	public void waitForConversions() throws ParseException {
+		try {
+			while (!fConversions.isEmpty()) fConversions.remove(0).get();
+		}
+		catch (ExecutionException e) {
+			throw getFailure(e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ParseException("Interrupted while converting images", e);
+		}
+	}
+	
+	
+	// load a graphic the first time the selected scene refers to it
+	// the include is found from the name of the symbol, as flash stores every symbol as its name with .xml appended.
+	// if that doesn't work out, the names are read from the includes themselves.
+	private Graphic loadGraphicOnDemand(String name) throws ParseException {
+		try {
+			return loadGraphicFromInclude(name);
+		}
+		catch (ParseException e) {
+			
+			// loading the entire document fails when a symbol fails, so remember this for when the scene is done
+			if (fIncludeError == null) fIncludeError = e;
+			throw e;
+		}
+	}
+	
+	
+	// load the include for a graphic with the given name, or return null if there is no such graphic
+	private Graphic loadGraphicFromInclude(String name) throws ParseException {
+		
+		// find the include
+		String href = fIncludes.get(name);
+		Node include = (href == null) ? null : XMLUtility.parseXML(fIncludeFactory, fRoot, "LIBRARY/" + href);
+		if (include == null || !name.equals(XMLUtility.getAttribute(include, "name", ""))) {
+			if (fIncludesByName) return null;
+			
+			// read the real names - this only happens once
+			Vector<Node> includeRoots = readIncludeRoots(fIncludeFactory, fIncludeNodes);
+			fIncludes = new HashMap<String, String>();
+			for (int i = 0; i < fIncludeNodes.size(); ++i) {
+				String includeName = XMLUtility.getAttribute(includeRoots.get(i), "name", "");
+				if (!includeName.equals("")) fIncludes.put(includeName, XMLUtility.getAttribute(fIncludeNodes.get(i), "href"));
+			}
+			fIncludesByName = true;
+			href = fIncludes.get(name);
+			if (href == null) return null;
+			include = XMLUtility.parseXML(fIncludeFactory, fRoot, "LIBRARY/" + href);
+		}
+		
+		// only graphics are supported - forget about this one, so we don't parse it again on the next reference
+		if (!XMLUtility.getAttribute(include, "symbolType", "graphic").equals("graphic")) {
+			fIncludes.remove(name);
+			return null;
+		}
+		
+		// add the graphic before loading it, so references back to it can be resolved
+		Graphic graphic = new Graphic();
+		fGraphics.put(name, graphic);
+		graphic.loadGraphic(XMLUtility, this, include);
+		return graphic;
+	}
+	
+	
+	// register an include from a separate XML, given the root element of that XML
+	private void loadInclude(final Map<String, String> nameToHref, String href, Node include) throws ParseException {
 		
 		// get name
 		String name = XMLUtility.getAttribute(include, "name", "");
 		if (name.equals("")) throw new ParseException("Invalid filename found for include: '" + href + "'");
 		
 		// add this item to the map
-		nameToNode.put(name, include);
+		nameToHref.put(name, href);
 		
 		// see if the symbol type exists
 		/*if (!XMLUtility.hasAttribute(include, "symbolType")) {
 			// unknown type, skip
-			nameToNode.remove(name);
+			nameToHref.remove(name);
 			return;
 		}*/
 		
@@ -248,6 +621,51 @@ public class XFLDocument implements XFLLibrary{
 	}
 	
 	
+	// run a set of tasks on the executor, or on this thread if there is none, and return their results in order
+	// the first task that failed determines the exception that is thrown
+	private <T> Vector<T> runAll(Vector<Callable<T>> tasks) throws ParseException {
+		Vector<T> results = new Vector<T>(tasks.size());
+		try {
+			
+			// no executor - run everything right here
+			if (fExecutor == null) {
+				for (Callable<T> task : tasks) results.add(task.call());
+				return results;
+			}
+			
+			// run in parallel, and wait for all of them
+			List<Future<T>> futures = fExecutor.invokeAll(tasks);
+			for (Future<T> future : futures) results.add(future.get());
+			return results;
+		}
+		catch (ExecutionException e) {
+			throw getFailure(e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ParseException("Interrupted while loading document", e);
+		}
+		catch (ParseException e) {
+			throw e;
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new ParseException("Failed to load document: " + e.getMessage(), e);
+		}
+	}
+	
+	
+	// get the exception to throw for a task that failed - unchecked exceptions are rethrown as they are
+	private static ParseException getFailure(Throwable cause) {
+		if (cause instanceof ParseException) return (ParseException)cause;
+		if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+		if (cause instanceof Error) throw (Error)cause;
+		return new ParseException("Failed to load document: " + cause.getMessage(), cause);
+	}
+	
+	
 	// get a graphic
 	@Override
 	public Graphic getGraphic(String href) throws ParseException {
@@ -255,6 +673,9 @@ public class XFLDocument implements XFLLibrary{
 		// try to find the graphic
 		Graphic graphic = fGraphics.get(href);
 		
+		// when loading a single scene, the graphic is loaded the first time it is needed
+		if (graphic == null && fIncludes != null) graphic = loadGraphicOnDemand(href);
+		
 		// not found - throw exception
 		if (graphic == null) throw new ParseException("Graphic reference could not be resolved: " + href);
 		
@@ -0,0 +1,49 @@
+package com.silenistudios.silenus.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.silenistudios.silenus.StreamFactory;
+
+/**
+ * Computes content keys for files: the SHA-1 digest of the file contents. The key only depends on the content,
+ * so it is the same whether the file is read from an XFL directory or from an FLA file.
+ * @author Karel
+ *
+ */
+public class ContentKey {
+	
+	// buffer size used for hashing files
+	private static final int BufferSize = 8192;
+	
+	
+	// compute the content key for a file
+	public static String compute(StreamFactory factory, File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 is not available: " + e.getMessage());
+		}
+		
+		// hash the contents
+		InputStream in = factory.createInputStream(file);
+		try {
+			byte[] buffer = new byte[BufferSize];
+			int n;
+			while ((n = in.read(buffer, 0, BufferSize)) != -1) digest.update(buffer, 0, n);
+		}
+		finally {
+			in.close();
+		}
+		
+		// hex
+		StringBuilder ss = new StringBuilder();
+		for (byte b : digest.digest()) ss.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		return ss.toString();
+	}
+}
@@ -0,0 +1,22 @@
+package com.silenistudios.silenus.cache;
+
+import java.io.File;
+
+import com.silenistudios.silenus.StreamFactory;
+
+/**
+ * A conversion cache remembers the files that were generated during parsing (such as the png's
+ * reconstructed from the binary .dat files), keyed by the contents of the file they were generated from.
+ * When the same content shows up again, the generated file is restored instead of converted again.
+ * Implementations must be thread-safe.
+ * @author Karel
+ *
+ */
+public interface ConversionCache {
+	
+	// restore the cached output for this key to the given file - returns false if nothing is cached for this key
+	public boolean restore(String key, StreamFactory factory, File output);
+	
+	// store the contents of a generated file under this key
+	public void store(String key, StreamFactory factory, File output);
+}
@@ -0,0 +1,102 @@
+package com.silenistudios.silenus.cache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.silenistudios.silenus.StreamFactory;
+
+/**
+ * Conversion cache that keeps the generated files in a directory on disk, so they survive between runs.
+ * Each key is stored in its own file. Files are written to a temporary name first and then renamed,
+ * so concurrent conversions never see a half-written entry.
+ * @author Karel
+ *
+ */
+public class DiskConversionCache implements ConversionCache {
+	
+	// buffer size for copying
+	private static final int BufferSize = 8192;
+	
+	// the cache directory
+	File fDirectory;
+	
+	
+	// create a cache in this directory
+	public DiskConversionCache(File directory) {
+		fDirectory = directory;
+		fDirectory.mkdirs();
+	}
+	
+	
+	@Override
+	public boolean restore(String key, StreamFactory factory, File output) {
+		File file = new File(fDirectory, key);
+		if (!file.exists()) return false;
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				OutputStream out = factory.createOutputStream(output);
+				copy(in, out);
+				out.flush();
+				out.close();
+			}
+			finally {
+				in.close();
+			}
+			return true;
+		}
+		catch (IOException e) {
+			// could not restore - just convert again
+			return false;
+		}
+	}
+	
+	
+	@Override
+	public void store(String key, StreamFactory factory, File output) {
+		File file = new File(fDirectory, key);
+		if (file.exists()) return;
+		File temp = null;
+		try {
+			
+			// write to a temporary file
+			temp = File.createTempFile(key, ".tmp", fDirectory);
+			InputStream in = factory.createInputStream(output);
+			try {
+				OutputStream out = new FileOutputStream(temp);
+				try {
+					copy(in, out);
+				}
+				finally {
+					out.close();
+				}
+			}
+			finally {
+				in.close();
+			}
+			
+			// publish it - if someone else beat us to it, that's fine too
+			if (temp.renameTo(file)) temp = null;
+		}
+		catch (IOException e) {
+			// failed to cache - no biggy, we'll just convert again next time
+		}
+		finally {
+			if (temp != null) temp.delete();
+		}
+	}
+	
+	
+	// copy a stream
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[BufferSize];
+		int n;
+		while ((n = in.read(buffer, 0, BufferSize)) != -1) {
+			out.write(buffer, 0, n);
+		}
+	}
+}
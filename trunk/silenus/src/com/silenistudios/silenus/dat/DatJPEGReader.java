@@ -1,9 +1,16 @@
 package com.silenistudios.silenus.dat;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
 import com.silenistudios.silenus.StreamFactory;
 import com.silenistudios.silenus.ParseException;
 
@@ -49,4 +56,67 @@ public class DatJPEGReader implements DatReader {
 			throw new ParseException(e.getMessage(), e);
 		}
 	}
+	
+	
+	// the .dat file is the jpeg itself, so this just decodes it
+	@Override
+	public BufferedImage read(String inputFileName) throws ParseException {
+		try {
+			InputStream in = fStreamFactory.createInputStream(new File(inputFileName));
+			try {
+				BufferedImage image = ImageIO.read(in);
+				if (image == null) throw new ParseException("Invalid jpeg data in '" + inputFileName + "'");
+				return image;
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			throw new ParseException(e.getMessage(), e);
+		}
+	}
+	
+	
+	// the .dat file is the jpeg itself, so this reads the size from its header
+	@Override
+	public int[] readSize(String inputFileName) throws ParseException {
+		try {
+			InputStream in = fStreamFactory.createInputStream(new File(inputFileName));
+			try {
+				int[] size = readImageSize(in);
+				if (size == null) throw new ParseException("Invalid jpeg data in '" + inputFileName + "'");
+				return size;
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			throw new ParseException(e.getMessage(), e);
+		}
+	}
+	
+	
+	// read the size of an image in any format ImageIO supports, as {width, height}, without decoding the pixels
+	// returns null if the format is not supported
+	public static int[] readImageSize(InputStream in) throws IOException {
+		ImageInputStream stream = ImageIO.createImageInputStream(in);
+		if (stream == null) return null;
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if (!readers.hasNext()) return null;
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(stream, true, true);
+				return new int[] {reader.getWidth(0), reader.getHeight(0)};
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+		finally {
+			stream.close();
+		}
+	}
 }
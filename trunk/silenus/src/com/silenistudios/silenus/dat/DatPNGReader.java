@@ -1,5 +1,7 @@
 package com.silenistudios.silenus.dat;
 
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,66 +32,105 @@ public class DatPNGReader implements DatReader {
 	OutputStream outStream;
 	
 	// buffer size
-	static final int BufferSize = 512;
+	static final int BufferSize = 65536;
+	
+	// the inflater and buffers for each thread, so they're only allocated once - bitmaps can be converted on several threads
+	private static final ThreadLocal<Inflater> Inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+	private static final ThreadLocal<byte[]> InputBuffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[Short.MAX_VALUE];
+		}
+	};
+	private static final ThreadLocal<byte[]> OutputBuffers = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BufferSize];
+		}
+	};
+	
+	// the encoder used when none is given
+	private static final PNGEncoder DefaultEncoder = new PNGEncoder();
 	
 	// output stream factory
 	StreamFactory fStreamFactory;
 	
+	// the encoder for the png files
+	PNGEncoder fEncoder;
+	
 	
 	// constructor
 	public DatPNGReader(StreamFactory factory) {
+		this(factory, null);
+	}
+	
+	
+	// constructor with the encoder for the png files - null to use the default one
+	public DatPNGReader(StreamFactory factory, PNGEncoder encoder) {
 		fStreamFactory = factory;
+		fEncoder = (encoder == null) ? DefaultEncoder : encoder;
+	}
+	
+	
+	// get the encoder for the png files
+	public PNGEncoder getEncoder() {
+		return fEncoder;
 	}
 	
 	// read a dat file and produce a png
 	@Override
 	public void parse(String inputFileName, String outputFileName) throws ParseException {
-		
 		try {
 			
-			// file
-			InputStream file = fStreamFactory.createInputStream(new File(inputFileName));
-			
-			// pass to data input stream
-			stream = new LittleEndianDataInputStream(file);
-			
-			// check the bitmap type
-			if (stream.readShort() != 0x0503) { // 0
-				throw new ParseException("Invalid bitmap identifier: no png format");
-			}
-			
-			// length of decompressed row data
-			// TODO what is this?
-			short length = stream.readShort(); // 2
-			
-			// width
-			fWidth = stream.readShort(); // 4
-			fHeight = stream.readShort(); // 6
+			// read the header
+			readHeader(inputFileName);
 			
 			// output png file
-			outStream = new PNGOutputStream(fStreamFactory.createOutputStream(new File(outputFileName)), fWidth, fHeight);
-			
-			// skip some empty bytes
-			stream.skipBytes(4); // 8
+			OutputStream file = fStreamFactory.createOutputStream(new File(outputFileName));
+			PNGOutputStream png = new PNGOutputStream(file, fWidth, fHeight, fEncoder);
+			outStream = png;
 			
-			// width in twips
-			int twipsWidth = stream.readInt(); // 12
-			
-			// unknown
-			stream.skipBytes(4); // 16
+			// read the pixels and write the png - the file is closed even if that fails
+			try {
+				readData();
+				png.close();
+			}
+			finally {
+				file.close();
+			}
+		}
+		catch (DataFormatException e) {
+			throw new ParseException(e.getMessage(), e);
+		}
+		catch (IOException e) {
+			throw new ParseException(e.getMessage(), e);
+		}
+		finally {
+			closeInput();
+		}
+	}
+	
+	
+	// read a dat file straight into an image
+	@Override
+	public BufferedImage read(String inputFileName) throws ParseException {
+		try {
 			
-			// height in twips
-			int twipsHeight = stream.readInt(); // 20
+			// read the header
+			readHeader(inputFileName);
 			
-			// flag
-			int flag = stream.readByte(); // 24
+			// write straight to the image
+			RasterOutputStream raster = new RasterOutputStream(fWidth, fHeight);
+			outStream = raster;
 			
-			// data compressed or uncompressed?
-			int compressed = stream.readByte(); // 25
-			if (compressed == 1) {
-				parseCompressed();
-			}
-			else parseUncompressed();
+			// read the pixels
+			readData();
+			return raster.getImage();
 		}
 		catch (DataFormatException e) {
 			throw new ParseException(e.getMessage(), e);
@@ -97,6 +138,89 @@ public class DatPNGReader implements DatReader {
 		catch (IOException e) {
 			throw new ParseException(e.getMessage(), e);
 		}
+		finally {
+			closeInput();
+		}
+	}
+	
+	
+	// read the size from the header of a dat file
+	@Override
+	public int[] readSize(String inputFileName) throws ParseException {
+		try {
+			readHeader(inputFileName);
+			return new int[] {fWidth, fHeight};
+		}
+		catch (IOException e) {
+			throw new ParseException(e.getMessage(), e);
+		}
+		finally {
+			closeInput();
+		}
+	}
+	
+	
+	// close the dat file opened by readHeader, if any
+	private void closeInput() {
+		if (stream == null) return;
+		try {
+			stream.close();
+		}
+		catch (IOException e) {
+			// we're done reading anyway
+		}
+		stream = null;
+	}
+	
+	
+	// read the header of a dat file, up to the pixel data
+	private void readHeader(String inputFileName) throws ParseException, IOException {
+		
+		// file
+		InputStream file = fStreamFactory.createInputStream(new File(inputFileName));
+		
+		// pass to data input stream
+		stream = new LittleEndianDataInputStream(new BufferedInputStream(file, BufferSize));
+		
+		// check the bitmap type
+		if (stream.readShort() != 0x0503) { // 0
+			throw new ParseException("Invalid bitmap identifier: no png format");
+		}
+		
+		// length of decompressed row data
+		// TODO what is this?
+		short length = stream.readShort(); // 2
+		
+		// width
+		fWidth = stream.readShort(); // 4
+		fHeight = stream.readShort(); // 6
+		
+		// skip some empty bytes
+		stream.skipBytes(4); // 8
+		
+		// width in twips
+		int twipsWidth = stream.readInt(); // 12
+		
+		// unknown
+		stream.skipBytes(4); // 16
+		
+		// height in twips
+		int twipsHeight = stream.readInt(); // 20
+		
+		// flag
+		int flag = stream.readByte(); // 24
+	}
+	
+	
+	// read the pixel data into the output stream
+	private void readData() throws DataFormatException, ParseException, IOException {
+		
+		// data compressed or uncompressed?
+		int compressed = stream.readByte(); // 25
+		if (compressed == 1) {
+			parseCompressed();
+		}
+		else parseUncompressed();
 	}
 	
 	
@@ -104,20 +228,21 @@ public class DatPNGReader implements DatReader {
 	private void parseCompressed() throws DataFormatException, ParseException, IOException {
 		
 		// inflater
-		Inflater decompresser = new Inflater();
+		Inflater decompresser = Inflaters.get();
+		decompresser.reset();
 		
 		// read length of compressed chunk
 		short length = stream.readShort();
 		
-		// buffer
-		byte[] buffer = new byte[BufferSize];
+		// buffers
+		byte[] input = InputBuffers.get();
+		byte[] buffer = OutputBuffers.get();
 		
 		// keep going until we reach the end
 		while (length > 0) {
 			
 			// read the compressed data into a buffer
-			byte[] input = new byte[length];
-			stream.read(input, 0, length);
+			stream.readFully(input, 0, length);
 			
 			// decompress
 			decompresser.setInput(input, 0, length);
@@ -1,5 +1,7 @@
 package com.silenistudios.silenus.dat;
 
+import java.awt.image.BufferedImage;
+
 import com.silenistudios.silenus.ParseException;
 
 /**
@@ -12,4 +14,10 @@ public interface DatReader {
 	
 	// parse a .dat file and convert it to the original format
 	public void parse(String inputFileName, String outputFileName) throws ParseException;
+	
+	// read a .dat file straight into an image, without writing it in the original format first
+	public BufferedImage read(String inputFileName) throws ParseException;
+	
+	// read only the size of the image in a .dat file, as {width, height} - the pixels are not decoded
+	public int[] readSize(String inputFileName) throws ParseException;
 }
@@ -0,0 +1,444 @@
+package com.silenistudios.silenus.dat;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * This class writes an image as an 8-bit RGBA png. Unlike ImageIO, the filter that is applied to the rows and the
+ * deflate level can be chosen. The rows are filtered in bands and compressed one band at a time, and the compressed
+ * data is written out in IDAT chunks as soon as it is produced.
+ * If an executor is set, the bands are filtered in parallel on it, ahead of the band that is being compressed.
+ * The encoding thread helps out with the filtering itself, so it is safe to use an executor that is also running
+ * the conversions that call this encoder. An encoder can be shared by several threads, once it is set up.
+ * @author Karel
+ *
+ */
+public class PNGEncoder {
+	
+	// the filter applied to each row before compressing it - ADAPTIVE picks the best one for each row separately
+	public enum Filter {
+		NONE,
+		SUB,
+		UP,
+		AVERAGE,
+		PAETH,
+		ADAPTIVE
+	};
+	
+	// png signature
+	private static final byte[] Signature = {(byte)137, 80, 78, 71, 13, 10, 26, 10};
+	
+	// chunk types
+	private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+	private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+	private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+	
+	// bytes per pixel (RGBA)
+	private static final int BytesPerPixel = 4;
+	
+	// maximum size of an IDAT chunk
+	private static final int ChunkSize = 65536;
+	
+	// approximate size of the filtered data in a band
+	private static final int BandSize = 262144;
+	
+	// premultiplied value to straight value, indexed by (alpha << 8) | value - this rounds exactly like ImageIO does
+	// values larger than alpha can't be premultiplied, but can still occur in corrupt data - they are clamped to 255
+	private static final byte[] Unpremultiply = new byte[65536];
+	static {
+		for (int a = 0; a < 256; ++a) {
+			float alpha = a * (1.0f / 255.0f);
+			for (int v = 0; v < 256; ++v) {
+				Unpremultiply[(a << 8) | v] = (byte)((a == 0) ? v : Math.min(255, (int)(v * (1.0f / alpha) + 0.5f)));
+			}
+		}
+	}
+	
+	// filter
+	Filter fFilter = Filter.ADAPTIVE;
+	
+	// deflate level
+	int fLevel = Deflater.DEFAULT_COMPRESSION;
+	
+	// executor used for filtering, or null to do everything on the calling thread
+	ExecutorService fExecutor = null;
+	
+	
+	// constructor
+	public PNGEncoder() {
+	}
+	
+	
+	// set the filter
+	public void setFilter(Filter filter) {
+		fFilter = filter;
+	}
+	
+	
+	// get the filter
+	public Filter getFilter() {
+		return fFilter;
+	}
+	
+	
+	// set the deflate level - from 0 (no compression) to 9 (best compression), or -1 for the default level
+	public void setLevel(int level) {
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) throw new IllegalArgumentException("Invalid deflate level: " + level);
+		fLevel = level;
+	}
+	
+	
+	// get the deflate level
+	public int getLevel() {
+		return fLevel;
+	}
+	
+	
+	// get a key for the settings that determine the output - the same image gives the same png for the same key
+	public String getKey() {
+		return fFilter.name().toLowerCase() + fLevel;
+	}
+	
+	
+	// set the executor used to filter the rows in parallel. The executor is not shut down by the encoder.
+	public void setExecutor(ExecutorService executor) {
+		fExecutor = executor;
+	}
+	
+	
+	// write an image as png - the output stream is not closed
+	public void write(BufferedImage image, OutputStream out) throws IOException {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		
+		// signature
+		out.write(Signature);
+		
+		// header: size, 8 bits per sample, RGBA, deflate, adaptive filtering, no interlacing
+		byte[] header = new byte[13];
+		writeInt(header, 0, width);
+		writeInt(header, 4, height);
+		header[8] = 8;
+		header[9] = 6;
+		writeChunk(out, IHDR, header, header.length);
+		
+		// the data
+		writeImageData(new Rows(image), out);
+		
+		// end
+		writeChunk(out, IEND, header, 0);
+		out.flush();
+	}
+	
+	
+	// compress the filtered bands and write them as IDAT chunks
+	private void writeImageData(final Rows rows, OutputStream out) throws IOException {
+		
+		// divide the image into bands
+		final int bandHeight = Math.max(1, BandSize / (rows.fRowBytes + 1));
+		int nBands = (rows.fHeight + bandHeight - 1) / bandHeight;
+		
+		// set up the filter tasks - these are run on the executor ahead of the band being compressed,
+		// or on this thread if the executor didn't get to them yet
+		ExecutorService executor = fExecutor;
+		int lookahead = (executor == null) ? 0 : 2 * Runtime.getRuntime().availableProcessors();
+		ArrayList<FutureTask<byte[]>> tasks = new ArrayList<FutureTask<byte[]>>(nBands);
+		for (int i = 0; i < nBands; ++i) {
+			final int y = i * bandHeight;
+			tasks.add(new FutureTask<byte[]>(new Callable<byte[]>() {
+				@Override
+				public byte[] call() {
+					return filterBand(rows, y, Math.min(y + bandHeight, rows.fHeight));
+				}
+			}));
+		}
+		for (int i = 0; i < Math.min(lookahead, nBands); ++i) submit(executor, tasks.get(i));
+		
+		// compress
+		Deflater deflater = new Deflater(fLevel);
+		if (fFilter != Filter.NONE) deflater.setStrategy(Deflater.FILTERED);
+		byte[] buffer = new byte[ChunkSize];
+		int position = 0;
+		try {
+			for (int i = 0; i < nBands; ++i) {
+				
+				// keep the executor busy
+				if (i + lookahead < nBands && lookahead > 0) submit(executor, tasks.get(i + lookahead));
+				
+				// get the filtered band
+				FutureTask<byte[]> task = tasks.get(i);
+				tasks.set(i, null);
+				task.run();
+				deflater.setInput(getResult(task));
+				
+				// compress it
+				while (!deflater.needsInput()) {
+					position += deflater.deflate(buffer, position, buffer.length - position);
+					if (position == buffer.length) {
+						writeChunk(out, IDAT, buffer, position);
+						position = 0;
+					}
+				}
+			}
+			
+			// flush the rest
+			deflater.finish();
+			while (!deflater.finished()) {
+				position += deflater.deflate(buffer, position, buffer.length - position);
+				if (position == buffer.length) {
+					writeChunk(out, IDAT, buffer, position);
+					position = 0;
+				}
+			}
+			if (position > 0) writeChunk(out, IDAT, buffer, position);
+		}
+		finally {
+			deflater.end();
+			
+			// don't leave anything behind on the executor if we failed
+			for (FutureTask<byte[]> task : tasks) if (task != null) task.cancel(false);
+		}
+	}
+	
+	
+	// hand a task to the executor - if it won't take it, it is run on the encoding thread later on
+	private static void submit(ExecutorService executor, FutureTask<byte[]> task) {
+		try {
+			executor.execute(task);
+		}
+		catch (RejectedExecutionException e) {
+			// we'll do it ourselves
+		}
+	}
+	
+	
+	// get the result of a task that was run
+	private static byte[] getResult(FutureTask<byte[]> task) throws IOException {
+		try {
+			return task.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while encoding png");
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+			if (e.getCause() instanceof Error) throw (Error)e.getCause();
+			throw new IOException("Failed to encode png: " + e.getCause());
+		}
+	}
+	
+	
+	// filter the rows [y0, y1) - each row is preceded by its filter type
+	private byte[] filterBand(Rows rows, int y0, int y1) {
+		int rowBytes = rows.fRowBytes;
+		byte[] out = new byte[(y1 - y0) * (rowBytes + 1)];
+		
+		// the previous row - the row above the image is all zeroes
+		byte[] previous = new byte[rowBytes];
+		byte[] current = new byte[rowBytes];
+		if (y0 > 0) rows.get(y0 - 1, previous);
+		
+		// scratch space for trying out the different filters
+		byte[] scratch = (fFilter == Filter.ADAPTIVE) ? new byte[rowBytes] : null;
+		byte[] best = (fFilter == Filter.ADAPTIVE) ? new byte[rowBytes] : null;
+		
+		int offset = 0;
+		for (int y = y0; y < y1; ++y) {
+			rows.get(y, current);
+			
+			// fixed filter
+			if (fFilter != Filter.ADAPTIVE) {
+				int type = fFilter.ordinal();
+				out[offset] = (byte)type;
+				filterRow(type, current, previous, out, offset + 1, rowBytes);
+			}
+			
+			// pick the filter with the smallest sum of absolute differences
+			else {
+				int bestType = 0;
+				long bestSum = Long.MAX_VALUE;
+				for (int type = 0; type <= 4; ++type) {
+					filterRow(type, current, previous, scratch, 0, rowBytes);
+					long sum = 0;
+					for (int i = 0; i < rowBytes && sum < bestSum; ++i) sum += Math.abs(scratch[i]);
+					if (sum < bestSum) {
+						bestSum = sum;
+						bestType = type;
+						byte[] tmp = best;
+						best = scratch;
+						scratch = tmp;
+					}
+				}
+				out[offset] = (byte)bestType;
+				System.arraycopy(best, 0, out, offset + 1, rowBytes);
+			}
+			offset += rowBytes + 1;
+			
+			// next row
+			byte[] tmp = previous;
+			previous = current;
+			current = tmp;
+		}
+		return out;
+	}
+	
+	
+	// apply a filter to a row
+	private static void filterRow(int type, byte[] row, byte[] previous, byte[] out, int offset, int n) {
+		switch (type) {
+			case 0:
+				System.arraycopy(row, 0, out, offset, n);
+				break;
+			case 1:
+				for (int i = 0; i < n; ++i) {
+					int left = (i < BytesPerPixel) ? 0 : row[i - BytesPerPixel] & 0xff;
+					out[offset + i] = (byte)(row[i] - left);
+				}
+				break;
+			case 2:
+				for (int i = 0; i < n; ++i) out[offset + i] = (byte)(row[i] - previous[i]);
+				break;
+			case 3:
+				for (int i = 0; i < n; ++i) {
+					int left = (i < BytesPerPixel) ? 0 : row[i - BytesPerPixel] & 0xff;
+					out[offset + i] = (byte)(row[i] - ((left + (previous[i] & 0xff)) >> 1));
+				}
+				break;
+			case 4:
+				for (int i = 0; i < n; ++i) {
+					int left = (i < BytesPerPixel) ? 0 : row[i - BytesPerPixel] & 0xff;
+					int up = previous[i] & 0xff;
+					int upLeft = (i < BytesPerPixel) ? 0 : previous[i - BytesPerPixel] & 0xff;
+					out[offset + i] = (byte)(row[i] - paeth(left, up, upLeft));
+				}
+				break;
+		}
+	}
+	
+	
+	// paeth predictor
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a);
+		int pb = Math.abs(p - b);
+		int pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc) return a;
+		if (pb <= pc) return b;
+		return c;
+	}
+	
+	
+	// write a chunk
+	private static void writeChunk(OutputStream out, byte[] type, byte[] data, int length) throws IOException {
+		byte[] word = new byte[4];
+		writeInt(word, 0, length);
+		out.write(word);
+		out.write(type);
+		out.write(data, 0, length);
+		CRC32 crc = new CRC32();
+		crc.update(type);
+		crc.update(data, 0, length);
+		writeInt(word, 0, (int)crc.getValue());
+		out.write(word);
+	}
+	
+	
+	// write a big-endian int
+	private static void writeInt(byte[] b, int offset, int value) {
+		b[offset] = (byte)(value >>> 24);
+		b[offset + 1] = (byte)(value >>> 16);
+		b[offset + 2] = (byte)(value >>> 8);
+		b[offset + 3] = (byte)value;
+	}
+	
+	
+	/**
+	 * Reads the rows of an image as straight RGBA bytes. The raster is read directly for images with 4-byte ABGR pixels,
+	 * such as the ones decoded from .dat files - any other image goes through getRGB.
+	 */
+	private static class Rows {
+		
+		// the image
+		BufferedImage fImage;
+		
+		// the pixels, or null if the image doesn't use 4-byte ABGR pixels
+		byte[] fPixels;
+		
+		// are the pixels premultiplied?
+		boolean fPremultiplied;
+		
+		// size
+		int fWidth;
+		int fHeight;
+		int fRowBytes;
+		
+		
+		// constructor
+		Rows(BufferedImage image) {
+			fImage = image;
+			fWidth = image.getWidth();
+			fHeight = image.getHeight();
+			fRowBytes = fWidth * BytesPerPixel;
+			
+			// only use the raster directly if it is laid out the way we expect it
+			int type = image.getType();
+			if ((type == BufferedImage.TYPE_4BYTE_ABGR || type == BufferedImage.TYPE_4BYTE_ABGR_PRE)
+					&& image.getRaster().getDataBuffer() instanceof DataBufferByte
+					&& image.getRaster().getParent() == null) {
+				fPixels = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+				fPremultiplied = (type == BufferedImage.TYPE_4BYTE_ABGR_PRE);
+			}
+		}
+		
+		
+		// read a row into the buffer
+		void get(int y, byte[] row) {
+			
+			// read the raster
+			if (fPixels != null) {
+				byte[] pixels = fPixels;
+				int p = y * fRowBytes;
+				for (int i = 0; i < fRowBytes; i += 4, p += 4) {
+					int alpha = pixels[p] & 0xff;
+					if (fPremultiplied) {
+						int base = alpha << 8;
+						row[i] = Unpremultiply[base | (pixels[p + 3] & 0xff)];
+						row[i + 1] = Unpremultiply[base | (pixels[p + 2] & 0xff)];
+						row[i + 2] = Unpremultiply[base | (pixels[p + 1] & 0xff)];
+					}
+					else {
+						row[i] = pixels[p + 3];
+						row[i + 1] = pixels[p + 2];
+						row[i + 2] = pixels[p + 1];
+					}
+					row[i + 3] = (byte)alpha;
+				}
+			}
+			
+			// ask the image
+			else {
+				int[] argb = new int[fWidth];
+				fImage.getRGB(0, y, fWidth, 1, argb, 0, fWidth);
+				for (int x = 0, i = 0; x < fWidth; ++x, i += 4) {
+					int c = argb[x];
+					row[i] = (byte)(c >> 16);
+					row[i + 1] = (byte)(c >> 8);
+					row[i + 2] = (byte)c;
+					row[i + 3] = (byte)(c >>> 24);
+				}
+			}
+		}
+	}
+}
@@ -1,80 +1,35 @@
 package com.silenistudios.silenus.dat;
 
-import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
 import java.io.IOException;
 
 import java.io.OutputStream;
 
-import javax.imageio.ImageIO;
-
 /**
  * This class takes in RGBA data from another source (inflater, for example), and writes
- * it to a file.
+ * it to a file as png. The png is encoded once, when the stream is closed.
  * @author Karel
  *
  */
-public class PNGOutputStream extends OutputStream {
-	
-	// buffered image
-	BufferedImage fImage;
-	
-	// the internal pixel array
-	byte[] fPixelArray;
-	
-	// width, height
-	int fWidth;
-	int fHeight;
-	
-	// current x/y we're drawing to
-	int fX = 0;
-	int fY = 0;
-	
-	// bytes read (need 4 to write rgba data)
-	int fBytesRead = 0;
-	
-	// data
-	byte fRed, fGreen, fBlue, fAlpha;
+public class PNGOutputStream extends RasterOutputStream {
 	
 	// output stream
 	OutputStream fOut;
 	
+	// the encoder
+	PNGEncoder fEncoder;
+	
 	
 	// constructor
 	public PNGOutputStream(OutputStream out, int width, int height) {
-		fWidth = width;
-		fHeight = height;
-		fOut = out;
-		fImage = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR_PRE);
-		fPixelArray = ((DataBufferByte)fImage.getRaster().getDataBuffer()).getData();
+		this(out, width, height, new PNGEncoder());
 	}
-
-	@Override
-	public void write(int b) throws IOException {
-		
-		// set data
-		switch (fBytesRead) {
-			case 0: fAlpha = (byte)b; break;
-			case 1: fRed = (byte)b; break;
-			case 2: fGreen = (byte)b; break;
-			case 3: fBlue = (byte)b; break;
-		}
-		++fBytesRead;
-		// flush byte if we're fully loaded
-		if (fBytesRead == 4) {
-			fBytesRead = 0;
-			fPixelArray[fY*fWidth*4 + fX*4] = fAlpha;
-			fPixelArray[fY*fWidth*4 + fX*4 + 1] = fBlue;
-			fPixelArray[fY*fWidth*4 + fX*4 + 2] = fGreen;
-			fPixelArray[fY*fWidth*4 + fX*4 + 3] = fRed;
-			
-			//fImage.setRGB(fX, fY, rgb);
-			++fX;
-			if (fX == fWidth) {
-				fX = 0;
-				++fY;
-			}
-		}
+	
+	
+	// constructor with a specific encoder
+	public PNGOutputStream(OutputStream out, int width, int height, PNGEncoder encoder) {
+		super(width, height);
+		fOut = out;
+		fEncoder = encoder;
 	}
 	
 	
@@ -94,18 +49,17 @@ public class PNGOutputStream extends OutputStream {
 	}
 	
 	
-	@Override
-	public void flush() throws IOException {
-		super.flush();
-		ImageIO.write(fImage, "png", fOut);
-	}
-	
-	
+	// encode the image and close the output stream - closing it again has no effect
 	@Override
 	public void close() throws IOException {
-		super.flush();
-		ImageIO.write(fImage, "png", fOut);
-		fImage = null;
+		if (fImage == null) return;
+		try {
+			fEncoder.write(fImage, fOut);
+		}
+		finally {
+			fImage = null;
+			fOut.close();
+		}
 	}
 
 }
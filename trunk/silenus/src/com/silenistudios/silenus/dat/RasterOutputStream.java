@@ -0,0 +1,109 @@
+package com.silenistudios.silenus.dat;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class takes in ARGB data from another source (inflater, for example), and writes
+ * it straight into the raster of an image, which can be used as is for drawing.
+ * @author Karel
+ *
+ */
+public class RasterOutputStream extends OutputStream {
+	
+	// buffered image
+	BufferedImage fImage;
+	
+	// the internal pixel array
+	byte[] fPixelArray;
+	
+	// width, height
+	int fWidth;
+	int fHeight;
+	
+	// current position in the pixel array we're drawing to
+	int fPosition = 0;
+	
+	// bytes read (need 4 to write rgba data)
+	int fBytesRead = 0;
+	
+	// data
+	byte fRed, fGreen, fBlue, fAlpha;
+	
+	
+	// constructor
+	public RasterOutputStream(int width, int height) {
+		fWidth = width;
+		fHeight = height;
+		fImage = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR_PRE);
+		fPixelArray = ((DataBufferByte)fImage.getRaster().getDataBuffer()).getData();
+	}
+	
+	
+	@Override
+	public void write(int b) throws IOException {
+		
+		// set data
+		switch (fBytesRead) {
+			case 0: fAlpha = (byte)b; break;
+			case 1: fRed = (byte)b; break;
+			case 2: fGreen = (byte)b; break;
+			case 3: fBlue = (byte)b; break;
+		}
+		++fBytesRead;
+		// flush byte if we're fully loaded
+		if (fBytesRead == 4) {
+			fBytesRead = 0;
+			
+			// anything beyond the last pixel is ignored
+			if (fPosition == fPixelArray.length) return;
+			fPixelArray[fPosition] = fAlpha;
+			fPixelArray[fPosition + 1] = fBlue;
+			fPixelArray[fPosition + 2] = fGreen;
+			fPixelArray[fPosition + 3] = fRed;
+			fPosition += 4;
+		}
+	}
+	
+	
+	// write a block of ARGB data - whole pixels are swizzled straight into the raster
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		
+		// finish the pixel that was started by the previous write
+		while (fBytesRead != 0 && len > 0) {
+			write(b[off++]);
+			--len;
+		}
+		
+		// copy all whole pixels, up to the end of the image
+		int pixels = Math.min(len >> 2, (fPixelArray.length - fPosition) >> 2);
+		byte[] pixelArray = fPixelArray;
+		int position = fPosition;
+		int end = off + pixels * 4;
+		while (off < end) {
+			pixelArray[position] = b[off];
+			pixelArray[position + 1] = b[off + 3];
+			pixelArray[position + 2] = b[off + 2];
+			pixelArray[position + 3] = b[off + 1];
+			position += 4;
+			off += 4;
+		}
+		fPosition = position;
+		len -= pixels * 4;
+		
+		// keep the start of the next pixel, and skip anything beyond the end of the image
+		while (len > 0) {
+			write(b[off++]);
+			--len;
+		}
+	}
+	
+	
+	// get the image
+	public BufferedImage getImage() {
+		return fImage;
+	}
+}
@@ -1,12 +1,20 @@
 package com.silenistudios.silenus.dom;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
+import java.lang.ref.SoftReference;
+
+import javax.imageio.ImageIO;
 
 import com.silenistudios.silenus.xml.Node;
 
 import com.silenistudios.silenus.StreamFactory;
 import com.silenistudios.silenus.ParseException;
+import com.silenistudios.silenus.cache.ContentKey;
+import com.silenistudios.silenus.cache.ConversionCache;
 import com.silenistudios.silenus.dat.*;
 import com.silenistudios.silenus.xml.XMLUtility;
 
@@ -40,9 +48,41 @@ public class Bitmap implements Serializable {
 	// height
 	private int fHeight;
 	
+	// where to read the binary data from - null if it isn't known
+	private transient StreamFactory fFactory;
+	private transient ConversionCache fCache;
+	
+	// the encoder for the source image, if it needs to be converted - null to use the default one
+	private transient PNGEncoder fEncoder;
+	
+	// the decoded image, shared by everyone who draws this bitmap - it can be dropped when memory runs low, and is decoded again if needed
+	private transient SoftReference<BufferedImage> fImage;
+	
+	// has the binary data been converted (or was there no need to)?
+	private boolean fConverted = false;
+	
+	// content key of the binary data (its SHA-1 digest), once it is computed
+	private String fContentKey = null;
+	
+	// actual size of the image as {width, height}, once it is known
+	private int[] fImageSize = null;
+	
 	
 	// read a bitmap from a node
 	public Bitmap(XMLUtility XMLUtility, StreamFactory factory, String root, Node node) throws ParseException {
+		this(XMLUtility, factory, null, root, node);
+	}
+	
+	
+	// read a bitmap from a node, restoring the converted image from the cache if it was converted before
+	public Bitmap(XMLUtility XMLUtility, StreamFactory factory, ConversionCache cache, String root, Node node) throws ParseException {
+		this(XMLUtility, root, node);
+		convert(factory, cache);
+	}
+	
+	
+	// read a bitmap from a node, without converting the binary data yet - call convert() or convertOnDemand() for that
+	public Bitmap(XMLUtility XMLUtility, String root, Node node) throws ParseException {
 		
 		// get name
 		fName = XMLUtility.getAttribute(node, "name");
@@ -61,15 +101,25 @@ public class Bitmap implements Serializable {
 		// width and height in twips
 		fWidth = XMLUtility.getIntAttribute(node,  "frameRight") / 20;
 		fHeight = XMLUtility.getIntAttribute(node,  "frameBottom") / 20;
+	}
+	
+	
+	// convert the binary data back to the source image, unless it exists already or this was done before
+	// this only touches the files of this bitmap, so different bitmaps can be converted in parallel
+	public synchronized void convert(StreamFactory factory, ConversionCache cache) {
+		if (fConverted) return;
+		fConverted = true;
+		fFactory = factory;
+		fCache = cache;
 		
 		// if the file already exists, don't re-write if
-		String outputFileName = root + "/LIBRARY/" + fSourceHref;
+		String outputFileName = fRoot + "/LIBRARY/" + fSourceHref;
 		
 		// see if the source file exists
 		if (!factory.exists(new File(outputFileName))) {
 			
 			// file does not exist, try to convert to binary
-			convertBinary(factory, outputFileName);
+			convertBinary(factory, cache, outputFileName);
 		}
 	}
 	
@@ -111,13 +161,123 @@ public class Bitmap implements Serializable {
 	
 	
 	// get the absolute path to the bitmap - this one should be used for drawing
+	// if the bitmap is converted on demand, it is converted before the path is returned
 	public String getAbsolutePath() {
+		convert();
 		return fRoot + "/LIBRARY/" + fSourceHref;
 	}
 	
 	
-	// convert the binary data back - for now only png is supported
-	private void convertBinary(StreamFactory factory, String outputFileName) {
+	// don't convert the binary data yet, but remember where to convert it from - it is converted the first time
+	// the image is needed, or when convert() is called
+	public synchronized void convertOnDemand(StreamFactory factory, ConversionCache cache) {
+		fFactory = factory;
+		fCache = cache;
+	}
+	
+	
+	// get a key for the contents of the binary data: the SHA-1 digest of the .dat file
+	// bitmaps with the same key have the same image, whatever their name - returns null if the key can't be computed
+	public synchronized String getContentKey() {
+		if (fContentKey == null && fFactory != null) {
+			try {
+				fContentKey = ContentKey.compute(fFactory, new File(fRoot + "/bin/" + fBinaryHref));
+			}
+			catch (IOException e) {
+				// no key
+			}
+		}
+		return fContentKey;
+	}
+	
+	
+	// set the encoder used to write the source image, if it has to be converted from the binary data
+	public synchronized void setEncoder(PNGEncoder encoder) {
+		fEncoder = encoder;
+	}
+	
+	
+	// convert the binary data now, if this bitmap is converted on demand and it hasn't been done yet
+	// this can safely be called from different threads - the conversion is only done once, and other threads wait for it
+	public synchronized void convert() {
+		if (fConverted || fFactory == null) return;
+		convert(fFactory, fCache);
+	}
+	
+	
+	// get the decoded image, for drawing it in-process. If the source image hasn't been written yet, it is decoded straight
+	// from the binary data, without encoding it to png and reading that back - the source image isn't written at all.
+	public synchronized BufferedImage getImage() throws ParseException {
+		BufferedImage image = (fImage == null) ? null : fImage.get();
+		if (image != null) return image;
+		if (fFactory == null) throw new ParseException("No data to read bitmap '" + fName + "' from");
+		
+		// the source image exists - read it
+		File source = new File(fRoot + "/LIBRARY/" + fSourceHref);
+		if (fFactory.exists(source)) {
+			try {
+				InputStream in = fFactory.createInputStream(source);
+				try {
+					image = ImageIO.read(in);
+				}
+				finally {
+					in.close();
+				}
+			}
+			catch (IOException e) {
+				throw new ParseException("Failed to read bitmap '" + source + "': " + e.getMessage(), e);
+			}
+			if (image == null) throw new ParseException("Unsupported image format for bitmap '" + source + "'");
+		}
+		
+		// decode the binary data
+		else {
+			DatReader reader = createReader(fFactory);
+			if (reader == null) throw new ParseException("Unsupported image format for bitmap '" + source + "'");
+			image = reader.read(fRoot + "/bin/" + fBinaryHref);
+		}
+		fImage = new SoftReference<BufferedImage>(image);
+		fImageSize = new int[] {image.getWidth(), image.getHeight()};
+		return image;
+	}
+	
+	
+	// get the actual size of the image as {width, height} - the size in the library is not always accurate
+	// unless the image is decoded already, only the header of the image is read
+	public synchronized int[] getImageSize() throws ParseException {
+		if (fImageSize != null) return fImageSize.clone();
+		if (fFactory == null) throw new ParseException("No data to read bitmap '" + fName + "' from");
+		
+		// the source image exists - read its header
+		File source = new File(fRoot + "/LIBRARY/" + fSourceHref);
+		if (fFactory.exists(source)) {
+			try {
+				InputStream in = fFactory.createInputStream(source);
+				try {
+					fImageSize = DatJPEGReader.readImageSize(in);
+				}
+				finally {
+					in.close();
+				}
+			}
+			catch (IOException e) {
+				throw new ParseException("Failed to read bitmap '" + source + "': " + e.getMessage(), e);
+			}
+			if (fImageSize == null) throw new ParseException("Unsupported image format for bitmap '" + source + "'");
+		}
+		
+		// read the header of the binary data
+		else {
+			DatReader reader = createReader(fFactory);
+			if (reader == null) throw new ParseException("Unsupported image format for bitmap '" + source + "'");
+			fImageSize = reader.readSize(fRoot + "/bin/" + fBinaryHref);
+		}
+		return fImageSize.clone();
+	}
+	
+	
+	// get the reader for the binary data, based on the extension of the source image - or null if the format is not supported
+	private DatReader createReader(StreamFactory factory) {
 		
 		// get extension
 		String extension = null;
@@ -125,31 +285,50 @@ public class Bitmap implements Serializable {
 		if (rootSplit.length > 0) extension = rootSplit[rootSplit.length-1];
 		
 		// no extension found - no way to figure out how to convert
-		if (extension == null) return;
+		if (extension == null) return null;
 		
 		// convert png
-		if (extension.equalsIgnoreCase("png")) {
-			convertBinary(new DatPNGReader(factory), outputFileName);
-		}
+		if (extension.equalsIgnoreCase("png")) return new DatPNGReader(factory, fEncoder);
 		
 		// convert jpeg
-		else if (extension.equalsIgnoreCase("jpeg") || extension.equalsIgnoreCase("jpg")) {
-			convertBinary(new DatJPEGReader(factory), outputFileName);
-		}
+		else if (extension.equalsIgnoreCase("jpeg") || extension.equalsIgnoreCase("jpg")) return new DatJPEGReader(factory);
+		return null;
+	}
+	
+	
+	// convert the binary data back - for now only png is supported
+	private void convertBinary(StreamFactory factory, ConversionCache cache, String outputFileName) {
+		DatReader reader = createReader(factory);
+		if (reader != null) convertBinary(reader, factory, cache, outputFileName);
 	}
 	
 	
 	// convert binary png
-	private void convertBinary(DatReader reader, String outputFileName) {
+	private void convertBinary(DatReader reader, StreamFactory factory, ConversionCache cache, String outputFileName) {
+		String inputFileName = fRoot + "/bin/" + fBinaryHref;
+		
+		// see if we converted this exact data before
+		// the key includes the format and the png settings, as the same data converts differently depending on the reader
+		// if the content key can't be computed, we convert without the cache
+		String key = (cache == null) ? null : getContentKey();
+		if (key != null) {
+			key += "." + reader.getClass().getSimpleName();
+			if (reader instanceof DatPNGReader) key += "." + ((DatPNGReader)reader).getEncoder().getKey();
+			if (cache.restore(key, factory, new File(outputFileName))) return;
+		}
 		
 		// it doesn't exist, try to make it
 		try {
-			reader.parse(fRoot + "/bin/" + fBinaryHref, outputFileName);
+			reader.parse(inputFileName, outputFileName);
 		}
 		catch (ParseException e) {
 			// failed to convert - no biggy, we continue
 			//System.out.println("Failed to convert .dat file '" + fBinaryHref + "': " + e.getMessage());
+			return;
 		}
+		
+		// remember the result
+		if (key != null) cache.store(key, factory, new File(outputFileName));
 	}
 	
 	
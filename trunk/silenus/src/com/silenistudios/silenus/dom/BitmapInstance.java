@@ -8,6 +8,7 @@ import com.silenistudios.silenus.xml.Node;
 import com.silenistudios.silenus.ParseException;
 import com.silenistudios.silenus.SceneRenderer;
 import com.silenistudios.silenus.XFLLibrary;
+import com.silenistudios.silenus.raw.TextureAtlas;
 import com.silenistudios.silenus.xml.XMLUtility;
 
 public class BitmapInstance extends Instance {
@@ -40,6 +41,15 @@ public class BitmapInstance extends Instance {
 	}
 	
 	
+	// bitmaps with the same content are exported once, even if they are in the library under different names
+	@Override
+	public String getExportKey() {
+		String key = fBitmap.getContentKey();
+		if (key == null) return super.getExportKey();
+		return "bitmap:" + key;
+	}
+	
+	
 	// add the bitmap
 	@Override
 	public Set<Bitmap> getUsedImages(Set<String> symbolInstancesAlreadyChecked) {
@@ -52,6 +62,25 @@ public class BitmapInstance extends Instance {
 	// just return the path
 	@Override
 	public String getJSON() {
+		return getJSON(null);
+	}
+	
+	
+	// return the region of the atlas the bitmap was packed into, or the path if it isn't in the atlas
+	public String getJSON(TextureAtlas atlas) {
+		TextureAtlas.Region region = (atlas == null) ? null : atlas.getRegion(fBitmap);
+		if (region != null) {
+			StringBuilder ss = new StringBuilder();
+			ss.append("{");
+			ss.append("\"type\":\"bitmap\",");
+			ss.append(region.getJSON());
+			ss.append("}");
+			return ss.toString();
+		}
+		
+		// the exported data refers to the image file, so make sure it exists
+		fBitmap.convert();
+		
 		StringBuilder ss = new StringBuilder();
 		ss.append("{");
 		ss.append("\"type\":\"bitmap\",");
@@ -0,0 +1,109 @@
+package com.silenistudios.silenus.dom;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Vector;
+
+import com.silenistudios.silenus.ParseException;
+import com.silenistudios.silenus.xml.Node;
+import com.silenistudios.silenus.xml.XMLUtility;
+
+/**
+ * The raw data of the <Edge> nodes of a shape: the edges string and the fill and stroke styles of each edge.
+ * This is all PathGenerator needs, so a shape can hold on to it and generate its paths later on,
+ * without keeping the XML around.
+ * @author Karel
+ *
+ */
+class EdgeData {
+	
+	// charset used for hashing
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	// the edges string of each edge - null for edges we skip, such as cubics
+	String[] fEdges;
+	
+	// fill style 0, fill style 1 and stroke style of each edge - -1 if not set
+	int[] fStyles;
+	
+	
+	// read the edges
+	public EdgeData(XMLUtility XMLUtility, Node root) throws ParseException {
+		Vector<Node> edges = XMLUtility.findNodes(root, "Edge");
+		fEdges = new String[edges.size()];
+		fStyles = new int[edges.size() * 3];
+		for (int i = 0; i < fEdges.length; ++i) {
+			Node edge = edges.get(i);
+			
+			// cubics or other editor-only lines don't have an edges string - these are skipped
+			fEdges[i] = XMLUtility.getAttribute(edge, "edges", null);
+			if (fEdges[i] == null) continue;
+			
+			// get the different types
+			// IMPORTANT
+			// IMPORTANT note that we subtract 1 here - the indices are counted starting from 1, while we store fill and stroke styles starting from 0 in an array
+			// IMPORTANT
+			fStyles[3*i] = XMLUtility.getIntAttribute(edge, "fillStyle0", 0) - 1; //fillstyle 0 is the left of the edge
+			fStyles[3*i+1] = XMLUtility.getIntAttribute(edge, "fillStyle1", 0) - 1; //fillstyle 1 is ther ight of the edge
+			fStyles[3*i+2] = XMLUtility.getIntAttribute(edge, "strokeStyle", 0) - 1; // -1 is "invalid"
+		}
+	}
+	
+	
+	// get the number of edges
+	public int getCount() {
+		return fEdges.length;
+	}
+	
+	
+	// get the edges string of an edge, or null if it should be skipped
+	public String getEdges(int index) {
+		return fEdges[index];
+	}
+	
+	
+	// get fill style 0 (left) or 1 (right) of an edge
+	public int getFillStyle(int index, int side) {
+		return fStyles[3*index+side];
+	}
+	
+	
+	// get the stroke style of an edge
+	public int getStrokeStyle(int index) {
+		return fStyles[3*index+2];
+	}
+	
+	
+	// make sure every edge refers to an existing stroke style
+	public void validateStrokeStyles(int strokeStyleCount) throws ParseException {
+		for (int i = 0; i < fEdges.length; ++i) {
+			if (fEdges[i] == null) continue;
+			int strokeStyle = getStrokeStyle(i);
+			if (strokeStyle >= strokeStyleCount) throw new ParseException("Non-existing stroke style refered in edge: " + (strokeStyle + 1));
+		}
+	}
+	
+	
+	// does any edge refer to a fill style that doesn't exist? This is only a problem if the edge ends up in a closed fill path
+	public boolean hasInvalidFillStyle(int fillStyleCount) {
+		for (int i = 0; i < fEdges.length; ++i) {
+			if (fEdges[i] == null) continue;
+			if (getFillStyle(i, 0) >= fillStyleCount || getFillStyle(i, 1) >= fillStyleCount) return true;
+		}
+		return false;
+	}
+	
+	
+	// add the edges to a hash
+	public void update(MessageDigest digest) {
+		StringBuilder ss = new StringBuilder();
+		for (int i = 0; i < fEdges.length; ++i) {
+			ss.setLength(0);
+			ss.append(getFillStyle(i, 0)).append(",");
+			ss.append(getFillStyle(i, 1)).append(",");
+			ss.append(getStrokeStyle(i)).append(",");
+			ss.append(fEdges[i] == null ? "" : fEdges[i]).append("\n");
+			digest.update(ss.toString().getBytes(UTF8));
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package com.silenistudios.silenus.dom;
+
+import com.silenistudios.silenus.ParseException;
+
+/**
+ * Walks over the instructions in the "edges" attribute of an <Edge> node in a single pass, without
+ * regular expressions or substrings. Coordinates are decoded straight into half-twips, the unit used by Point.
+ * Decimal and #hex.frac coordinates are decoded in place; anything more exotic is handed to Point.
+ * @author Karel
+ *
+ */
+class EdgeTokenizer {
+	
+	// the edges string
+	String fEdges;
+	
+	// position in the string
+	int fPos = 0;
+	
+	// the current instruction
+	char fInstruction;
+	
+	// coordinates of the current instruction, in half-twips - one point for a move or line, two for a curve
+	int[] fCoordinates = new int[4];
+	
+	
+	// constructor
+	public EdgeTokenizer(String edges) {
+		fEdges = edges;
+	}
+	
+	
+	// is this one of the instruction characters?
+	private static boolean isInstruction(char c) {
+		return c == '!' || c == '|' || c == '/' || c == '[' || c == ']';
+	}
+	
+	
+	// can this character be part of a coordinate?
+	private static boolean isCoordinate(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'F') || c == '.' || c == '-' || c == '#';
+	}
+	
+	
+	// go to the next instruction - returns false at the end of the string
+	public boolean next() throws ParseException {
+		int length = fEdges.length();
+		while (true) {
+			
+			// skip to the next instruction
+			while (fPos < length && !isInstruction(fEdges.charAt(fPos))) fPos++;
+			if (fPos >= length) return false;
+			fInstruction = fEdges.charAt(fPos++);
+			
+			// an instruction without any arguments is ignored
+			if (fPos < length && !isInstruction(fEdges.charAt(fPos))) break;
+		}
+		
+		// read the points
+		int n = getPointCount() * 2;
+		for (int i = 0; i < n; ++i) fCoordinates[i] = readCoordinate();
+		return true;
+	}
+	
+	
+	// get the current instruction
+	public char getInstruction() {
+		return fInstruction;
+	}
+	
+	
+	// get the number of points of the current instruction
+	public int getPointCount() {
+		return (fInstruction == '[' || fInstruction == ']') ? 2 : 1;
+	}
+	
+	
+	// get a coordinate of the current instruction, in half-twips - x and y of the first point, then of the second
+	public int getCoordinate(int index) {
+		return fCoordinates[index];
+	}
+	
+	
+	// read the next coordinate
+	private int readCoordinate() throws ParseException {
+		int length = fEdges.length();
+		while (fPos < length && Character.isWhitespace(fEdges.charAt(fPos))) fPos++;
+		int start = fPos;
+		while (fPos < length && isCoordinate(fEdges.charAt(fPos))) fPos++;
+		if (fPos == start) throw new ParseException("Invalid edge instruction found in DOMShape: \"" + fEdges + "\"");
+		return decode(start, fPos);
+	}
+	
+	
+	// decode a coordinate into half-twips
+	private int decode(int start, int end) throws ParseException {
+		long value = fEdges.charAt(start) == '#' ? decodeHex(start + 1, end) : decodeDecimal(start, end);
+		
+		// not something we can decode in place
+		if (value == Long.MIN_VALUE) {
+			try {
+				return Point.toHalfTwips(fEdges.substring(start, end));
+			}
+			catch (NumberFormatException e) {
+				throw new ParseException("Invalid coordinate found in DOMShape: \"" + fEdges.substring(start, end) + "\"", e);
+			}
+		}
+		return (int)value;
+	}
+	
+	
+	// decode a decimal coordinate - returns Long.MIN_VALUE if it isn't a plain decimal
+	private long decodeDecimal(int start, int end) {
+		boolean negative = fEdges.charAt(start) == '-';
+		long full = 0;
+		int firstFraction = 0;
+		int fractionDigits = 0;
+		int digits = 0;
+		int points = 0;
+		for (int i = negative ? start + 1 : start; i < end; ++i) {
+			char c = fEdges.charAt(i);
+			if (c == '.') points++;
+			else if (c >= '0' && c <= '9') {
+				if (points == 0) full = full * 10 + (c - '0');
+				else if (fractionDigits++ == 0) firstFraction = c - '0';
+				digits++;
+			}
+			else return Long.MIN_VALUE;
+		}
+		
+		// more digits than a double holds exactly are left to Point, so the rounding stays the same
+		if (digits == 0 || digits > 15 || points > 1) return Long.MIN_VALUE;
+		
+		// a half-twip is added for fractions of .5 and up - the result is rounded towards zero, like a cast
+		long value = full * 2 + (firstFraction >= 5 ? 1 : 0);
+		if (value > Integer.MAX_VALUE) return Long.MIN_VALUE;
+		return negative ? -value : value;
+	}
+	
+	
+	// decode a hex coordinate (without the #) - the last two digits are the fraction in 1/256th of a twip
+	// returns Long.MIN_VALUE if it isn't plain hex
+	private long decodeHex(int start, int end) {
+		long full = 0;
+		int digits = 0;
+		int fractionDigits = 0;
+		boolean point = false;
+		for (int i = start; i < end; ++i) {
+			char c = fEdges.charAt(i);
+			if (c == '.' && !point) point = true;
+			else if (c >= '0' && c <= '9') full = full * 16 + (c - '0');
+			else if (c >= 'A' && c <= 'F') full = full * 16 + (c - 'A' + 10);
+			else return Long.MIN_VALUE;
+			if (c != '.') {
+				digits++;
+				if (point) fractionDigits++;
+			}
+		}
+		
+		// pad the fraction to two digits
+		if (fractionDigits < 2) {
+			full <<= 4 * (2 - fractionDigits);
+			digits += 2 - fractionDigits;
+		}
+		if (digits > 15) return Long.MIN_VALUE;
+		
+		// the value is a two's complement 32 bit number, in 1/256th of a twip
+		return (int)full / 128;
+	}
+}
@@ -42,6 +42,13 @@ public abstract class Instance {
 	// reference ID - only used for IK pose
 	String fReferenceId;
 	
+	// the instance this one is interpolated with - the instance with the same library item in the next keyframe if this keyframe
+	// is tweened, or in this keyframe otherwise. Resolved by the layer when it is loaded, so no names are looked up while rendering
+	Instance fTweenPartner = null;
+	
+	// offset from the real frame to the frame this instance is drawn at, based on the first keyframe its library item appears in
+	int fFrameOffset = 0;
+	
 	// is this instance masked by previous masks?
 	// this is only set temporarily when we are in mask mode, to allow the renderers to take this into account
 	public boolean fMasked = false;
@@ -66,8 +73,8 @@ public abstract class Instance {
 		fReferenceId = XMLUtility.getAttribute(root,  "referenceID", "");
 		
 		// alpha
-		try {
-			Node color = XMLUtility.findNode(root, "Color");
+		Node color = XMLUtility.findOptionalNode(root, "Color");
+		if (color != null) {
 			fColorManipulation = new ColorManipulation();
 			fColorManipulation.setAlphaMultiplier(XMLUtility.getDoubleAttribute(color, "alphaMultiplier", 1.0));
 			fColorManipulation.setRedMultiplier(XMLUtility.getDoubleAttribute(color, "redMultiplier", 1.0));
@@ -78,31 +85,20 @@ public abstract class Instance {
 			fColorManipulation.setGreenOffset(XMLUtility.getDoubleAttribute(color, "greenOffset", 0.0));
 			fColorManipulation.setBlueOffset(XMLUtility.getDoubleAttribute(color, "blueOffset", 0.0));
 		}
-		catch (ParseException e) {
-			// <Color> does not exist
-		}
 		
-		// get matrix subnode
-		try {
-			Node matrixParent = XMLUtility.findNodeNonRecursive(root, "matrix");
-			Node matrix = XMLUtility.findNodeNonRecursive(matrixParent, "Matrix");
-			fMatrix = new TransformationMatrix(XMLUtility, matrix);
-		}
-		catch (ParseException e) {
-			// do nothing, this just means <matrix> doesn't exist and no values should be set
-		}
+		// get matrix subnode - if <matrix> doesn't exist, no values should be set
+		Node matrixParent = XMLUtility.findOptionalNodeNonRecursive(root, "matrix");
+		Node matrix = (matrixParent == null) ? null : XMLUtility.findOptionalNodeNonRecursive(matrixParent, "Matrix");
+		if (matrix != null) fMatrix = new TransformationMatrix(XMLUtility, matrix);
 		
-		// get the transformation point
-		try {
-			Node transformationPoint = XMLUtility.findNode(root, "transformationPoint");
-			Node point = XMLUtility.findNode(transformationPoint, "Point");
-			
-			// load transformation point
+		// get the transformation point - if <transformationPoint> doesn't exist, no values should be set
+		Node transformationPoint = XMLUtility.findOptionalNode(root, "transformationPoint");
+		Node point = (transformationPoint == null) ? null : XMLUtility.findOptionalNode(transformationPoint, "Point");
+		
+		// load transformation point - the point is skipped when it has no x coordinate, as it always has been
+		if (point != null && XMLUtility.hasAttribute(point, "x")) {
 			fTransformationX = XMLUtility.getDoubleAttribute(point,  "x");
-			fTransformationY = XMLUtility.getDoubleAttribute(point,  "y");
-		}
-		catch (ParseException e) {
-			// do nothing, this just means <transformationPoint> doesn't exist and no values should be set
+			if (XMLUtility.hasAttribute(point, "y")) fTransformationY = XMLUtility.getDoubleAttribute(point,  "y");
 		}
 	}
 	
@@ -210,6 +206,32 @@ public abstract class Instance {
 	}
 	
 	
+	// get the instance to interpolate with - this instance itself if there is none
+	public Instance getTweenPartner() {
+		return (fTweenPartner == null) ? this : fTweenPartner;
+	}
+	
+	
+	// get the offset from the real frame to the frame this instance is drawn at
+	public int getFrameOffset() {
+		return fFrameOffset;
+	}
+	
+	
+	// set the tween partner and frame offset - called by the layer, once all keyframes are loaded
+	void resolve(Instance tweenPartner, int frameOffset) {
+		fTweenPartner = tweenPartner;
+		fFrameOffset = frameOffset;
+	}
+	
+	
+	// get the key this instance is exported under - instances with the same key have the same content, and are only exported once
+	// by default, this is the library item name
+	public String getExportKey() {
+		return fLibraryItemName;
+	}
+	
+	
 	// set the library item name - can only be done by subclasses who don't have a library item name by themselves, and therefore
 	// generate one of their own
 	protected void setLibraryItemName(String name) {
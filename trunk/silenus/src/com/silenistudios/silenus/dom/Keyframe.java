@@ -5,10 +5,11 @@ import com.silenistudios.silenus.XFLLibrary;
 import com.silenistudios.silenus.raw.TransformationMatrix;
 import com.silenistudios.silenus.xml.XMLUtility;
 
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 import java.util.Vector;
 
@@ -23,11 +24,8 @@ import com.silenistudios.silenus.xml.Node;
  */
 public class Keyframe {
 	
-	// list of instances in this keyframe, mapped by their library name for quick access
-	Map<String, Instance> fInstancesByLibraryName = new HashMap<String, Instance>();
-	
-	// flat list of all instances
-	Vector<Instance> fInstances = new Vector<Instance>();
+	// flat list of all instances - fixed once the keyframe is loaded
+	Instance[] fInstances;
 	
 	// index
 	int fIndex;
@@ -67,32 +65,36 @@ public class Keyframe {
 		Vector<TransformationMatrix> inBetweenMatrices = null;
 		if (tweenType.equals("IK pose")) {
 			
-			// get duration of the animation
-			try {
-				
-				// get the IK Tree
-				Node tree = XMLUtility.findNode(root, "IKTree");
-				fIKTree = new IKTree(XMLUtility, tree);
-				
-				// get the list of in between matrices
-				/*Node frameList = XMLUtility.findNode(root, "betweenFrameMatrixList");
-				Vector<Node> matrices = XMLUtility.findNodes(frameList, "Matrix");
-				inBetweenMatrices = new Vector<TransformationMatrix>();
-				for (Node node : matrices) inBetweenMatrices.add(new TransformationMatrix(XMLUtility, node));*/
-			}
-			catch (ParseException e) {
-				// invalid IK pose - we don't have betweenFrameMatrixList or duration, and
-				// for now we're not going to simulate the bones real-time, so no animation :(
-				fIsTween = false;
+			// get the IK Tree
+			// if there is none, the IK pose is invalid - we don't have betweenFrameMatrixList or duration, and
+			// for now we're not going to simulate the bones real-time, so no animation :(
+			Node tree = XMLUtility.findOptionalNode(root, "IKTree");
+			if (tree == null) fIsTween = false;
+			else {
+				try {
+					fIKTree = new IKTree(XMLUtility, tree);
+					
+					// get the list of in between matrices
+					/*Node frameList = XMLUtility.findNode(root, "betweenFrameMatrixList");
+					Vector<Node> matrices = XMLUtility.findNodes(frameList, "Matrix");
+					inBetweenMatrices = new Vector<TransformationMatrix>();
+					for (Node node : matrices) inBetweenMatrices.add(new TransformationMatrix(XMLUtility, node));*/
+				}
+				catch (ParseException e) {
+					// invalid IK tree
+					fIsTween = false;
+				}
 			}
 		}
 		
 		// get all instances
 		Node elements = XMLUtility.findNodeNonRecursive(root,  "elements");
-		Vector<Node> instances = XMLUtility.getChildElements(elements);
-		for (Node node : instances) {
-			addInstance(XMLUtility, library, node);
+		Vector<Node> nodes = XMLUtility.getChildElements(elements);
+		List<Instance> instances = new ArrayList<Instance>();
+		for (Node node : nodes) {
+			addInstance(XMLUtility, library, node, instances);
 		}
+		fInstances = instances.toArray(new Instance[instances.size()]);
 		
 		// motion tween
 		if (tweenType.equals("motion")) {
@@ -127,8 +129,8 @@ public class Keyframe {
 	}
 	
 	
-	// add an instance
-	private void addInstance(XMLUtility XMLUtility, XFLLibrary library, Node node) {
+	// add an instance to the list
+	private void addInstance(XMLUtility XMLUtility, XFLLibrary library, Node node, List<Instance> instances) {
 		
 		// if adding this fails, it means we found an invalid reference
 		Instance instance = null;
@@ -152,9 +154,9 @@ public class Keyframe {
 			// it's a group - just add the underlying members
 			else if (node.getNodeName().equals("DOMGroup")) {
 				Node members = XMLUtility.findNodeNonRecursive(node,  "members");
-				Vector<Node> instances = XMLUtility.getChildElements(members);
-				for (Node member : instances) {
-					addInstance(XMLUtility, library, member);
+				Vector<Node> nodes = XMLUtility.getChildElements(members);
+				for (Node member : nodes) {
+					addInstance(XMLUtility, library, member, instances);
 				}
 			}
 			
@@ -164,10 +166,7 @@ public class Keyframe {
 			}
 			
 			// add to list
-			fInstances.add(instance);
-			
-			// add to map
-			if (instance.getLibraryItemName().length() > 0) fInstancesByLibraryName.put(instance.getLibraryItemName(), instance);
+			instances.add(instance);
 			
 			// if there's in-between matrices, we add them to the instance
 			if (fIKTree != null) {
@@ -195,15 +194,30 @@ public class Keyframe {
 	
 	
 	// get all symbol instances
-	public Collection<Instance> getlInstances() {
-		return fInstances;
+	public List<Instance> getlInstances() {
+		return Collections.unmodifiableList(Arrays.asList(fInstances));
 	}
 	
 	
+	// get the number of instances
+	public int getInstanceCount() {
+		return fInstances.length;
+	}
+	
 	
-	// get an instance by library name
+	// get an instance, in drawing order
+	public Instance getInstance(int index) {
+		return fInstances[index];
+	}
+	
+	
+	// get an instance by library name - if the name occurs more than once, the last instance is returned
+	// this is a linear search, so it's meant for loading rather than rendering
 	public Instance getInstance(String libraryItemName) {
-		return fInstancesByLibraryName.get(libraryItemName);
+		for (int i = fInstances.length - 1; i >= 0; --i) {
+			if (fInstances[i].getLibraryItemName().equals(libraryItemName)) return fInstances[i];
+		}
+		return null;
 	}
 	
 	
@@ -4,7 +4,12 @@ import com.silenistudios.silenus.ParseException;
 import com.silenistudios.silenus.XFLLibrary;
 import com.silenistudios.silenus.xml.XMLUtility;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 
@@ -19,11 +24,11 @@ import com.silenistudios.silenus.xml.Node;
  */
 public class Layer {
 	
-	// set of keyframes
-	Vector<Keyframe> fKeyframes = new Vector<Keyframe>();
+	// set of keyframes - fixed once the layer is loaded
+	Keyframe[] fKeyframes;
 	
-	// child layers
-	Vector<Layer> fChildLayers = new Vector<Layer>();
+	// child layers - these are added by the layers loaded after this one
+	Layer[] fChildLayers = new Layer[0];
 	
 	// name of the layer
 	String fName;
@@ -40,9 +45,15 @@ public class Layer {
 	// layer type
 	String fLayerType;
 	
+	// the keyframe for each frame index, or null for frames that aren't covered by any keyframe
+	Keyframe[] fKeyframeByFrame;
+	
+	// the first keyframe each library item appears in
+	Map<String, Keyframe> fFirstKeyframeByLibraryName = new HashMap<String, Keyframe>();
+	
 	
 	// create a layer
-	public Layer(XMLUtility XMLUtility, XFLLibrary library, Vector<Layer> prevLayers, Node root) throws ParseException {
+	public Layer(XMLUtility XMLUtility, XFLLibrary library, List<Layer> prevLayers, Node root) throws ParseException {
 		
 		// set type
 		fAnimationType = XMLUtility.getAttribute(root, "animationType", "");
@@ -70,19 +81,94 @@ public class Layer {
 		
 		// get the different keyframes
 		Vector<Node> frames = XMLUtility.findNodes(root,  "DOMFrame");
-		for (Node node : frames) {
-			Keyframe frame = new Keyframe(XMLUtility, library, node);
-			fKeyframes.add(frame);
+		fKeyframes = new Keyframe[frames.size()];
+		for (int i = 0; i < fKeyframes.length; ++i) {
+			Keyframe frame = new Keyframe(XMLUtility, library, frames.get(i));
+			fKeyframes[i] = frame;
 			
 			// note that we subtract 1 frame - this is because the frame itself is also counted in the duration!
 			fMaxFrameIndex = frame.getIndex() + frame.getDuration() - 1;
 			
 			// set next key frame for the previous frame
-			if (fKeyframes.size() > 1) fKeyframes.get(fKeyframes.size()-2).setNextKeyframe(frame);
+			if (i > 0) fKeyframes[i-1].setNextKeyframe(frame);
 			
 			// if we're a mask, we signal this to all our instances
 			
 		}
+		
+		// index the keyframes, so they can be found back without going over all of them on every frame
+		buildIndex();
+		
+		// link the instances to their tween partners and first occurrences
+		resolveInstances();
+	}
+	
+	
+	// build the frame index and the first keyframe for each library item
+	private void buildIndex() {
+		
+		// frame index - the first keyframe that covers a frame wins
+		int length = 0;
+		for (Keyframe keyframe : fKeyframes) length = Math.max(length, keyframe.getIndex() + keyframe.getDuration());
+		fKeyframeByFrame = new Keyframe[length];
+		for (Keyframe keyframe : fKeyframes) {
+			int end = keyframe.getIndex() + keyframe.getDuration();
+			for (int i = Math.max(0, keyframe.getIndex()); i < end; ++i) {
+				if (fKeyframeByFrame[i] == null) fKeyframeByFrame[i] = keyframe;
+			}
+		}
+		
+		// first keyframe by library item
+		for (Keyframe keyframe : fKeyframes) {
+			for (int i = 0; i < keyframe.getInstanceCount(); ++i) {
+				String name = keyframe.getInstance(i).getLibraryItemName();
+				if (name.length() > 0 && !fFirstKeyframeByLibraryName.containsKey(name)) fFirstKeyframeByLibraryName.put(name, keyframe);
+			}
+		}
+	}
+	
+	
+	// resolve the tween partner of each instance, and the offset to the first keyframe its library item appears in
+	// this is what the renderer used to look up by name on every frame
+	private void resolveInstances() {
+		
+		// the instances of each keyframe by name - only needed while resolving
+		Map<Keyframe, Map<String, Instance>> byName = new HashMap<Keyframe, Map<String, Instance>>();
+		for (Keyframe keyframe : fKeyframes) byName.put(keyframe, getInstancesByName(keyframe));
+		
+		for (Keyframe keyframe : fKeyframes) {
+			
+			// the keyframe we interpolate with
+			Keyframe f2 = (keyframe.hasNextKeyframe() && keyframe.isTween()) ? keyframe.getNextKeyframe() : keyframe;
+			Map<String, Instance> partners = byName.get(f2);
+			if (partners == null) partners = getInstancesByName(f2);
+			for (int i = 0; i < keyframe.getInstanceCount(); ++i) {
+				Instance instance = keyframe.getInstance(i);
+				String name = instance.getLibraryItemName();
+				
+				// the first occurrence of this library item in the layer - an instance without a name only occurs here
+				Keyframe f0 = fFirstKeyframeByLibraryName.get(name);
+				Instance first = (f0 == null) ? null : byName.get(f0).get(name);
+				if (first == null) {
+					f0 = keyframe;
+					first = instance;
+				}
+				
+				// the frame is corrected to start at the first frame defined by the first occurrence
+				instance.resolve(partners.get(name), first.getFirstFrame() - f0.getIndex());
+			}
+		}
+	}
+	
+	
+	// map the instances of a keyframe by library item name - if a name occurs more than once, the last instance wins
+	private static Map<String, Instance> getInstancesByName(Keyframe keyframe) {
+		Map<String, Instance> map = new HashMap<String, Instance>();
+		for (int i = 0; i < keyframe.getInstanceCount(); ++i) {
+			Instance instance = keyframe.getInstance(i);
+			if (instance.getLibraryItemName().length() > 0) map.put(instance.getLibraryItemName(), instance);
+		}
+		return map;
 	}
 	
 	
@@ -99,8 +185,8 @@ public class Layer {
 	
 	
 	// get the keyframes
-	public Vector<Keyframe> getKeyframes() {
-		return fKeyframes;
+	public List<Keyframe> getKeyframes() {
+		return Collections.unmodifiableList(Arrays.asList(fKeyframes));
 	}
 	
 	
@@ -129,28 +215,22 @@ public class Layer {
 	public Keyframe getKeyframe(int correctedFrame) {
 		if (correctedFrame < 0) return null; // happens when polling for previous versions of an instance
 		
-		// look among all keyframes for a match
-		for (Keyframe keyframe : fKeyframes) {
-			if (keyframe.getIndex() <= correctedFrame && correctedFrame < keyframe.getIndex() + keyframe.getDuration()) return keyframe;
-		}
-		
-		// no match found
-		return null;
+		// beyond the last keyframe - no match
+		if (correctedFrame >= fKeyframeByFrame.length) return null;
+		return fKeyframeByFrame[correctedFrame];
 	}
 	
 	
 	// get first keyframe that contains a given symbol
 	public Keyframe getFirstKeyframe(String libraryItemName) {
-		for (Keyframe keyframe : fKeyframes) {
-			if (keyframe.getInstance(libraryItemName) != null) return keyframe;
-		}
-		return null; // this should NEVER occur, as this function is only called whenever an instance is found in a subsequent keyframe
+		return fFirstKeyframeByLibraryName.get(libraryItemName); // null should NEVER occur, as this function is only called whenever an instance is found in a subsequent keyframe
 	}
 	
 	
 	// add a child layer - this one is masked
 	public void addChild(Layer layer) {
-		fChildLayers.add(layer);
+		fChildLayers = Arrays.copyOf(fChildLayers, fChildLayers.length + 1);
+		fChildLayers[fChildLayers.length - 1] = layer;
 	}
 	
 	
@@ -168,7 +248,19 @@ public class Layer {
 	
 	
 	// get child layers - the ones that should be drawn with the mask
-	public Vector<Layer> getChildLayers() {
-		return fChildLayers;
+	public List<Layer> getChildLayers() {
+		return Collections.unmodifiableList(Arrays.asList(fChildLayers));
+	}
+	
+	
+	// get the number of child layers
+	public int getChildLayerCount() {
+		return fChildLayers.length;
+	}
+	
+	
+	// get a child layer
+	public Layer getChildLayer(int index) {
+		return fChildLayers[index];
 	}
 }
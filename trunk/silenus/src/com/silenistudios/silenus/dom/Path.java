@@ -1,60 +1,201 @@
 package com.silenistudios.silenus.dom;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.silenistudios.silenus.ShapeRenderInterface;
-import com.silenistudios.silenus.dom.lines.Line;
 
 /**
  * A path represents a set of points that follow each other, and that can be filled or stroked.
+ * The path is stored as a list of instructions (moveTo, lineTo or curveTo) and one flat array with their
+ * coordinates in half-twips, rather than as line and point objects. Walk over it with a Cursor.
  * @author Karel
  *
  */
 public class Path {
 	
-	// internal ID counter
-	private static int IdCounter = 0;
+	// instructions
+	public static final byte MoveTo = 0;
+	public static final byte LineTo = 1;
+	public static final byte CurveTo = 2;
+	
+	// internal ID counter - paths can be generated on several threads at once
+	private static final AtomicInteger IdCounter = new AtomicInteger();
 	
 	// unique ID of this path, used for quick comparison
 	long fId;
 	
-	// set of lines in this path
-	List<Line> fLines = new LinkedList<Line>();
+	// instructions
+	byte[] fOps = new byte[8];
+	int fOpCount = 0;
+	
+	// coordinates of the instructions in half-twips - x and y for a move or line, control point and target for a curve
+	int[] fCoordinates = new int[16];
+	int fCoordinateCount = 0;
 	
 	// index - can represent a stroke or fill index
 	int fIndex;
 	
 	
+	/**
+	 * Flyweight for walking over the instructions of a path - it doesn't allocate anything per instruction.
+	 * Call reset() to walk over the path again with the same cursor.
+	 */
+	public class Cursor {
+		
+		// current instruction, and the offset of its coordinates
+		int fOp = -1;
+		int fOffset = 0;
+		
+		
+		// go back to before the first instruction
+		public void reset() {
+			fOp = -1;
+			fOffset = 0;
+		}
+		
+		
+		// go to the next instruction - returns false at the end of the path
+		public boolean next() {
+			if (fOp >= 0) fOffset += getCoordinateCount(fOps[fOp]);
+			return ++fOp < fOpCount;
+		}
+		
+		
+		// get the instruction
+		public byte getType() {
+			return fOps[fOp];
+		}
+		
+		
+		// get the x coordinate of the target, in half-twips
+		public int getTwipX() {
+			return fCoordinates[fOffset + getCoordinateCount(fOps[fOp]) - 2];
+		}
+		
+		
+		// get the y coordinate of the target, in half-twips
+		public int getTwipY() {
+			return fCoordinates[fOffset + getCoordinateCount(fOps[fOp]) - 1];
+		}
+		
+		
+		// get the x coordinate of the control point of a curve, in half-twips
+		public int getControlTwipX() {
+			return fCoordinates[fOffset];
+		}
+		
+		
+		// get the y coordinate of the control point of a curve, in half-twips
+		public int getControlTwipY() {
+			return fCoordinates[fOffset + 1];
+		}
+		
+		
+		// get x of the target
+		public double getX() {
+			return toPixels(getTwipX());
+		}
+		
+		
+		// get y of the target
+		public double getY() {
+			return toPixels(getTwipY());
+		}
+		
+		
+		// get x of the control point
+		public double getControlX() {
+			return toPixels(getControlTwipX());
+		}
+		
+		
+		// get y of the control point
+		public double getControlY() {
+			return toPixels(getControlTwipY());
+		}
+	}
+	
+	
 	// constructor
 	public Path(int index) {
 		fIndex = index;
-		fId = ++IdCounter;
+		fId = IdCounter.incrementAndGet();
 	}
 	
 	
-	// add a point at the end
-	public void add(Line p) {
-		fLines.add(p);
+	// number of coordinates used by an instruction
+	private static int getCoordinateCount(byte op) {
+		return op == CurveTo ? 4 : 2;
 	}
 	
 	
-	// add a point at the specified index
-	public void add(int index, Line p) {
-		fLines.add(index, p);
+	// convert half-twips to pixels
+	private static double toPixels(int twip) {
+		return twip / 20.0 / 2.0;
 	}
 	
 	
-	// get number of points
-	//public int getNLines() {
-	//	return fLines.size();
-	//}
+	// add an instruction
+	private void addOp(byte op) {
+		if (fOpCount == fOps.length) fOps = Arrays.copyOf(fOps, fOps.length * 2);
+		fOps[fOpCount++] = op;
+	}
+	
+	
+	// add a pair of coordinates
+	private void addCoordinates(int x, int y) {
+		if (fCoordinateCount + 2 > fCoordinates.length) fCoordinates = Arrays.copyOf(fCoordinates, fCoordinates.length * 2);
+		fCoordinates[fCoordinateCount++] = x;
+		fCoordinates[fCoordinateCount++] = y;
+	}
 	
 	
-	// get all points
-	//public List<Line> getLines() {
-	//	return fLines;
-	//}
+	// make sure the pen is at the given start position - if the start differs from where the previous line stopped,
+	// we issue another moveTo. This can happen if there is a cut out in the middle of a shape
+	// the winding order of the hole will be reversed from the outside of the shape
+	private void moveTo(int x, int y) {
+		if (fOpCount == 0 || fCoordinates[fCoordinateCount-2] != x || fCoordinates[fCoordinateCount-1] != y) {
+			addOp(MoveTo);
+			addCoordinates(x, y);
+		}
+	}
+	
+	
+	// add a straight line at the end, in half-twips
+	public void addLine(int startX, int startY, int stopX, int stopY) {
+		moveTo(startX, startY);
+		addOp(LineTo);
+		addCoordinates(stopX, stopY);
+	}
+	
+	
+	// add a quadratic curve at the end, in half-twips
+	public void addCurve(int startX, int startY, int controlX, int controlY, int stopX, int stopY) {
+		moveTo(startX, startY);
+		addOp(CurveTo);
+		addCoordinates(controlX, controlY);
+		addCoordinates(stopX, stopY);
+	}
+	
+	
+	// release the unused room at the end of the arrays, once the path is complete
+	void trim() {
+		fOps = Arrays.copyOf(fOps, fOpCount);
+		fCoordinates = Arrays.copyOf(fCoordinates, fCoordinateCount);
+	}
+	
+	
+	// get a cursor to walk over the instructions
+	public Cursor getCursor() {
+		return new Cursor();
+	}
+	
+	
+	// get the number of instructions
+	public int getInstructionCount() {
+		return fOpCount;
+	}
 	
 	
 	// get stroke or fill index
@@ -65,7 +206,7 @@ public class Path {
 	
 	// closed?
 	public boolean isClosed() {
-		return fLines.get(0).getStart().equals(fLines.get(fLines.size()-1).getStop());
+		return fOpCount > 0 && fCoordinates[0] == fCoordinates[fCoordinateCount-2] && fCoordinates[1] == fCoordinates[fCoordinateCount-1];
 	}
 	
 	
@@ -75,26 +216,22 @@ public class Path {
     }
 	
 	
-	// render the path to a renderer - use some magic to take into account the moveTo actions
+	// render the path to a renderer
 	public void render(ShapeRenderInterface renderer) {
-		
-		// first, move to the starting position
-		Point prevStop = fLines.get(0).getStart();
-		renderer.moveTo(prevStop.getX(), prevStop.getY());
-		
-		// walk over all lines, and render them in subsequent order
-		for (Line line : fLines) {
-			
-			// HOWEVER, if the stop position of the previous line differs from the start position of the current one,
-			// we issue another moveTo command. This can happen if there is a cut out in the middle of a shape
-            // the winding order of the hole will be reversed from the outside of the shape
-			if (!line.getStart().equals(prevStop)){
-                renderer.moveTo(line.getStart().getX(), line.getStart().getY());
-            }
-			
-			// render the line
-			line.render(renderer);
-			prevStop = line.getStop();
+		int offset = 0;
+		for (int i = 0; i < fOpCount; ++i) {
+			switch (fOps[i]) {
+				case MoveTo:
+					renderer.moveTo(toPixels(fCoordinates[offset]), toPixels(fCoordinates[offset+1]));
+					break;
+				case LineTo:
+					renderer.lineTo(toPixels(fCoordinates[offset]), toPixels(fCoordinates[offset+1]));
+					break;
+				case CurveTo:
+					renderer.quadraticCurveTo(toPixels(fCoordinates[offset]), toPixels(fCoordinates[offset+1]), toPixels(fCoordinates[offset+2]), toPixels(fCoordinates[offset+3]));
+					break;
+			}
+			offset += getCoordinateCount(fOps[i]);
 		}
 	}
 	
@@ -103,11 +240,10 @@ public class Path {
 	@Override
 	public String toString() {
 		StringBuilder ss = new StringBuilder();
-		boolean first = true;
-		for (Line p : fLines) {
-			if (first) first = false;
-			else ss.append(" -> ");
-			ss.append(p.toString());
+		Cursor cursor = getCursor();
+		while (cursor.next()) {
+			if (cursor.fOp != 0) ss.append(cursor.getType() == MoveTo ? " " : " -> ");
+			appendPoint(ss, cursor.getX(), cursor.getY());
 		}
 		return ss.toString();
 	}
@@ -118,15 +254,24 @@ public class Path {
 		StringBuilder ss = new StringBuilder();
 		ss.append("{");
 		ss.append("\"points\":[");
-		
-		// first, move to the start position
-		Point prevStop = fLines.get(0).getStart();
-		ss.append(getMoveToJSON(prevStop));
-		for (Line line : fLines) {
-			ss.append(",");
-			if (!line.getStart().equals(prevStop)) ss.append(getMoveToJSON(line.getStart())).append(",");
-			ss.append(line.getJSON());
-			prevStop = line.getStop();
+		Cursor cursor = getCursor();
+		while (cursor.next()) {
+			if (cursor.fOp != 0) ss.append(",");
+			switch (cursor.getType()) {
+				case MoveTo:
+					ss.append("{\"type\":\"moveTo\",\"p\":");
+					break;
+				case LineTo:
+					ss.append("{\"type\":\"lineTo\",\"p\":");
+					break;
+				case CurveTo:
+					ss.append("{\"type\":\"quadraticCurveTo\",\"control\":");
+					appendPoint(ss, cursor.getControlX(), cursor.getControlY());
+					ss.append(",\"p\":");
+					break;
+			}
+			appendPoint(ss, cursor.getX(), cursor.getY());
+			ss.append("}");
 		}
 		ss.append("],");
 		ss.append("\"index\":").append(fIndex);
@@ -135,8 +280,8 @@ public class Path {
 	}
 	
 	
-	// append move to
-	private String getMoveToJSON(Point p) {
-        return "{\"type\":\"moveTo\"," + "\"p\":" + p.getJSON() + "}";
+	// append a point, the same way Point.getJSON does
+	private static void appendPoint(StringBuilder ss, double x, double y) {
+		ss.append("[").append(x).append(",").append(y).append("]");
 	}
 }
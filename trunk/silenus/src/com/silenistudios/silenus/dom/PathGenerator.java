@@ -1,20 +1,15 @@
 package com.silenistudios.silenus.dom;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import com.silenistudios.silenus.ParseException;
-import com.silenistudios.silenus.dom.lines.Line;
-import com.silenistudios.silenus.dom.lines.QuadraticCurve;
-import com.silenistudios.silenus.dom.lines.StraightLine;
 import com.silenistudios.silenus.xml.Node;
 import com.silenistudios.silenus.xml.XMLUtility;
 
@@ -26,12 +21,18 @@ import com.silenistudios.silenus.xml.XMLUtility;
  */
 public class PathGenerator {
 	
-	// list of completed fill paths
+	// list of completed fill paths - one per fill style, holding all of its closed outlines
 	Vector<Path> fFillPaths = new Vector<Path>();
 	
 	// list of completed stroke paths
 	Vector<Path> fStrokePaths = new Vector<Path>();
 	
+	// the segments of the edge that is being parsed, SegmentSize values each: curve (0 or 1), start, control point and stop
+	int[] fSegments = new int[16 * SegmentSize];
+	
+	// number of values per segment
+	private static final int SegmentSize = 7;
+	
 	// constructor
 	public PathGenerator() {
 	}
@@ -39,19 +40,28 @@ public class PathGenerator {
 	
 	// generate the appropriate paths
 	public void generate(XMLUtility XMLUtility, Node root) throws ParseException {
+		generate(new EdgeData(XMLUtility, root));
+	}
+	
+	
+	// generate the paths from edge data that was read before
+	void generate(EdgeData edges) {
 		
-		// list of all edges, sorted by fill type and then mapped by a hash defined by their endpoint for easy connection
-		Map<Integer, Map<String, List<Line>>> pathsByColor = new HashMap<Integer, Map<String, List<Line>>>();
+		// the half-edges of each fill type, in document order - each one has its fill on the left
+		Map<Integer, List<HalfEdge>> edgesByColor = new TreeMap<Integer, List<HalfEdge>>();
 		
-		// get all Edge nodes
-		Vector<Node> edges = XMLUtility.findNodes(root, "Edge");
-		int[] fillTypes = new int[2];
-		for (Node edge : edges) {
+		// walk over all edges
+		for (int edge = 0; edge < edges.getCount(); ++edge) {
 			
-			// get points of this edge
-			Vector<Line> lines;
+			// cubics or other editor-only lines
+			if (edges.getEdges(edge) == null)	{
+                continue;
+            }
+			
+			// get the segments of this edge
+			int segmentCount;
 			try {
-				lines = getLines(XMLUtility, edge);
+				segmentCount = getSegments(edges.getEdges(edge));
 			}
 			catch (ParseException e) {
 				//e.printStackTrace();
@@ -59,26 +69,16 @@ public class PathGenerator {
 				continue;
 			}
 			
-			// cubics or other editor-only lines
-			if (lines == null)	{
-                continue;
-            }
+            // get the different types
+            int strokeType = edges.getStrokeStyle(edge);
 			
-			// walk over all lines in this edge and sort them by color and start point
-            for (Line line1 : lines) {
-
-                // get the different types
-                // IMPORTANT
-                // IMPORTANT note that we subtract 1 here - the indices are counted starting from 1, while we store fill and stroke styles starting from 0 in an array
-                // IMPORTANT
-                fillTypes[0] = XMLUtility.getIntAttribute(edge, "fillStyle0", 0) - 1; //fillstyle 0 is the left of the edge
-                fillTypes[1] = XMLUtility.getIntAttribute(edge, "fillStyle1", 0) - 1; //fillstyle 1 is ther ight of the edge
-                int strokeType = XMLUtility.getIntAttribute(edge, "strokeStyle", 0) - 1; // -1 is "invalid"
+			// walk over all segments in this edge and sort them by color
+            for (int segment = 0; segment < segmentCount * SegmentSize; segment += SegmentSize) {
 
                 // we simply add the stroke paths
                 if (strokeType != -1) {
                     Path path = new Path(strokeType);
-                    path.add(line1);
+                    new HalfEdge(fSegments, segment, false).appendTo(path);
                     fStrokePaths.add(path);
                 }
 
@@ -86,207 +86,237 @@ public class PathGenerator {
                 for (int fillType = 0; fillType < 2; ++fillType) {
 
                     // no no fill type set
-                    if (fillTypes[fillType] == -1) continue;
-
-                    // create the path - inverted if it's a fillType1
-                    Line line = line1;
-                    if (fillType == 1) {
-                        line = line.invert();
-                    }
+                    int fillStyle = edges.getFillStyle(edge, fillType);
+                    if (fillStyle == -1) continue;
 
-                    // add to the list of paths
-                    String hash = getPointHash(line.getStart());
-                    if (!pathsByColor.containsKey(fillTypes[fillType])) {
-                        pathsByColor.put(fillTypes[fillType], new HashMap<String, List<Line>>());
-                    }
-                    Map<String, List<Line>> paths = pathsByColor.get(fillTypes[fillType]);
-                    if (!paths.containsKey(hash)) {
-                        paths.put(hash, new ArrayList<Line>());
+                    // add to the list of half-edges
+                    List<HalfEdge> halfEdges = edgesByColor.get(fillStyle);
+                    if (halfEdges == null) {
+                        halfEdges = new ArrayList<HalfEdge>();
+                        edgesByColor.put(fillStyle, halfEdges);
                     }
-                    paths.get(hash).add(line);
+                    halfEdges.add(new HalfEdge(fSegments, segment, fillType == 1));
                 }
             }
 		}
 		
-		// now we walk over all paths with the same color and try to merge them
-		for (Entry<Integer, Map<String, List<Line>>> entry : pathsByColor.entrySet()) {
-			Integer fillType = entry.getKey();
-			Map<String, List<Line>> hash = entry.getValue();
+		// now we trace the closed paths of each color
+		for (Entry<Integer, List<HalfEdge>> entry : edgesByColor.entrySet()) {
+			traceFillPaths(entry.getKey(), entry.getValue());
+		}
+		
+		// the paths are complete - drop the room that was reserved for growing them
+		for (Path path : fStrokePaths) path.trim();
+		for (Path path : fFillPaths) path.trim();
+	}
+	
+	
+	// trace all closed outlines formed by the half-edges of one fill type, and combine them into a single path
+	// at every vertex, the outline continues with the outgoing edge that comes right before the way back in angle - this keeps
+	// the fill on the same side all the way around, also when two identically coloured fills lie next to each other
+	private void traceFillPaths(int fillType, List<HalfEdge> halfEdges) {
+		
+		// group the half-edges by start vertex, and sort the ones leaving each vertex by angle - this is done only once
+		HalfEdge[] sorted = halfEdges.toArray(new HalfEdge[halfEdges.size()]);
+		Arrays.sort(sorted, VertexOrder);
+		long[] starts = new long[sorted.length];
+		for (int i = 0; i < sorted.length; ++i) starts[i] = sorted[i].fStart;
+		
+		// start an outline at every half-edge that hasn't been used yet
+		Path path = null;
+		List<HalfEdge> outline = new ArrayList<HalfEdge>();
+		for (HalfEdge first : halfEdges) {
+			if (first.fUsed) continue;
+			first.fUsed = true;
+			outline.clear();
+			outline.add(first);
 			
-			// keep going until the hash is empty
-			while (hash.size() > 0) {
-				
-				// get the first list of paths in the hash
-				List<Line> paths = hash.values().iterator().next();
-				
-				// get the first point in there and remove it from the list, and turn it into a path
-				Line firstLine = paths.get(0);
-				Path path1 = new Path(fillType);
-				path1.add(firstLine);
-				paths.remove(0);
-				
-				// this list is now empty - delete it from the map
-				if (paths.size() == 0) {
-                    hash.remove(getPointHash(firstLine.getStart()));
-                }
-				
-				// compute the hash for the endpoint
-				String endHash = getPointHash(firstLine.getStop());
+			// keep going until we're back at the start, or we can't find any connections anymore
+			HalfEdge edge = first;
+			while ((edge = getNextEdge(sorted, starts, edge)) != null) {
+				edge.fUsed = true;
+				outline.add(edge);
 				
-				// find all points that match this hash in the first point
-				List<Line> connections = hash.get(endHash);
-				
-				// invalid connection - might be unknown edge type
-				if (connections == null) {
-                    continue;
-                }
-				
-				// keep going until we can't find any connections anymore
-				Line connection = firstLine;
-				while (connections.size() > 0) {
-					
-					// add the last connection to the collection for sorting, but only do so when the inverse is not already present
-					// this entire structure is needed for when two identically coloured fills lie next to each other
-					// in this case, the endHash will contain connection itself... and we don't want to match ourselves,
-					// or we'll get stuck in an infinite loop
-					boolean alreadyInverse = false;
-					Line connectionInverted = null;
-					for (Line p : connections) {
-						if (p.getStart().equals(connection.getStop()) && p.getStop().equals(connection.getStart())) {
-							alreadyInverse = true;
-							connectionInverted = p;
-						}
-					}
-					
-					
-					// invert the last connection and add it to the list, so we can find the next angle
-					if (!alreadyInverse) {
-						connectionInverted = connection.invert();
-						connections.add(connectionInverted);
-					}
-					
-					// sort the connections by angle
-					Collections.sort(connections);
-					
-					// now find our own point in the list - the point previous to it is our connection!
-					ListIterator<Line> it = connections.listIterator(connections.size());
-					//while (it.hasPrevious() && !it.previous().equals(connectionInverted));
-					while (it.hasPrevious()) {
-						Line p = it.previous();
-                        if (p.equals(connectionInverted)) {
-                            if (!alreadyInverse) it.remove();
-                            break;
-                        }
-                    }
-					
-					// there is a previous path - this is the one!
-					if (it.hasPrevious()) {
-						connection = it.previous();
-						it.remove();
-					}
-					
-					// no previous path - our own line is the smallest angle, get the largest one
-					else {
-						connection = connections.get(connections.size()-1);
-						connections.remove(connections.size()-1);
-					}					
-					
-					// no connections in here anymore
-					if (connections.size() == 0) {
-						hash.remove(endHash);
-					}
-					
-					// we add this point to the path
-					path1.add(connection);
-					
-					// closed?
-					if (path1.isClosed()) {
-						fFillPaths.add(path1);
-						break;
+				// closed - add it to the path of this fill type, open outlines are dropped
+				if (edge.fStop == first.fStart) {
+					if (path == null) {
+						path = new Path(fillType);
+						fFillPaths.add(path);
 					}
-					
-					// recompute the hash
-					endHash = getPointHash(connection.getStop());
-					
-					// find all points that match this hash in the first point
-					connections = hash.get(endHash);
-					
-					// invalid connection - might be unknown edge type
-					if (connections == null){
-                        break;
-                    }
+					for (int i = 0; i < outline.size(); ++i) outline.get(i).appendTo(path);
+					break;
 				}
 			}
 		}
 	}
 	
 	
-	// compute a hash for a point
-	private static String getPointHash(Point p) {
-		return p.getTwipX() + "_" + p.getTwipY();
+	// find the unused half-edge that continues a path after the given one, or null if there is none
+	private static HalfEdge getNextEdge(HalfEdge[] sorted, long[] starts, HalfEdge edge) {
+		
+		// find the half-edges leaving the end vertex
+		int begin = lowerBound(starts, edge.fStop);
+		int end = begin;
+		while (end < starts.length && starts[end] == edge.fStop) end++;
+		
+		// find where the way back fits in between them - the edge right before it is our connection
+		int pos = begin;
+		while (pos < end && compareAngles(sorted[pos].fDx, sorted[pos].fDy, -edge.fDx, -edge.fDy) < 0) pos++;
+		
+		// walk back from there, wrapping around if needed - the way back itself is only taken as a last resort
+		HalfEdge back = null;
+		for (int i = 0; i < end - begin; ++i) {
+			HalfEdge candidate = sorted[pos - 1 - i >= begin ? pos - 1 - i : pos - 1 - i + (end - begin)];
+			if (candidate.fUsed) continue;
+			if (candidate.fStop == edge.fStart) {
+				if (back == null) back = candidate;
+				continue;
+			}
+			return candidate;
+		}
+		return back;
+	}
+	
+	
+	// find the first index with a value that is not smaller than the given one
+	private static int lowerBound(long[] values, long value) {
+		int low = 0;
+		int high = values.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] < value) low = mid + 1;
+			else high = mid;
+		}
+		return low;
 	}
-
-
-    //private static Pattern InstructionPattern = Pattern.compile("[!\\/\\|\\[\\]S][^!\\/\\|\\[\\]S]+");
-	private static Pattern InstructionPattern = Pattern.compile("[!\\x7C\\[\\]\\/][^!\\x7C\\[\\]\\/]+");
 	
-	// get all the points in this edge
-	private Vector<Line> getLines(XMLUtility XMLUtility, Node edge) throws ParseException {
+	
+	// compare two directions by angle, from 0 to 360
+	// note: in flash, the topleft is the origin, so y points down and the angle goes up clockwise on the screen
+	private static int compareAngles(int ax, int ay, int bx, int by) {
 		
-		String edgesString;
-		try {
-			edgesString = XMLUtility.getAttribute(edge, "edges");
-		} catch (ParseException e) {
-			if (XMLUtility.hasAttribute(edge, "cubics"))
-			{
-				return null;
-			}
-			throw new ParseException("Cannot parse line");
+		// first the upper half (0 up to 180), then the lower half
+		int halfA = (ay < 0 || (ay == 0 && ax > 0)) ? 0 : 1;
+		int halfB = (by < 0 || (by == 0 && bx > 0)) ? 0 : 1;
+		if (halfA != halfB) return halfA - halfB;
+		
+		// same half - the cross product tells us which one comes first
+		long cross = (long)ay * bx - (long)ax * by;
+		return cross > 0 ? -1 : (cross < 0 ? 1 : 0);
+	}
+	
+	
+	// pack a point into a single long, for use as a vertex key
+	private static long getVertexKey(int x, int y) {
+		return ((long)x << 32) | (y & 0xFFFFFFFFL);
+	}
+	
+	
+	// orders half-edges by start vertex, and the ones leaving the same vertex by angle
+	private static final Comparator<HalfEdge> VertexOrder = new Comparator<HalfEdge>() {
+		@Override
+		public int compare(HalfEdge a, HalfEdge b) {
+			if (a.fStart != b.fStart) return a.fStart < b.fStart ? -1 : 1;
+			return compareAngles(a.fDx, a.fDy, b.fDx, b.fDy);
 		}
+	};
+	
+	
+	/**
+	 * A segment directed so that the fill lies on its left, with its vertices packed into longs.
+	 */
+	private static class HalfEdge {
 		
-		// split the edges string up into different instructions
-		Matcher matcher = InstructionPattern.matcher(edgesString);
-		Vector<Line> lines = new Vector<Line>();
-		Point lastStop = null;
+		// is this a quadratic curve, or a straight line?
+		boolean fCurve;
 		
-		while (matcher.find()) {
-			
-			// find the appropriate instruction
-			String s = edgesString.substring(matcher.start(), matcher.end());
-			char instruction = s.charAt(0);
+		// coordinates in half-twips
+		int fStartX;
+		int fStartY;
+		int fControlX;
+		int fControlY;
+		int fStopX;
+		int fStopY;
+		
+		// start and stop vertex
+		long fStart;
+		long fStop;
+		
+		// direction from start to stop, in half-twips
+		int fDx;
+		int fDy;
+		
+		// already part of a path?
+		boolean fUsed = false;
+		
+		
+		// constructor - takes a segment from the segment buffer, inverted if the fill lies on its right
+		HalfEdge(int[] segments, int offset, boolean inverted) {
+			fCurve = segments[offset] != 0;
+			fStartX = segments[offset + (inverted ? 5 : 1)];
+			fStartY = segments[offset + (inverted ? 6 : 2)];
+			fControlX = segments[offset + 3];
+			fControlY = segments[offset + 4];
+			fStopX = segments[offset + (inverted ? 1 : 5)];
+			fStopY = segments[offset + (inverted ? 2 : 6)];
+			fStart = getVertexKey(fStartX, fStartY);
+			fStop = getVertexKey(fStopX, fStopY);
+			fDx = fStopX - fStartX;
+			fDy = fStopY - fStartY;
+		}
+		
+		
+		// add the segment to the end of a path
+		void appendTo(Path path) {
+			if (fCurve) path.addCurve(fStartX, fStartY, fControlX, fControlY, fStopX, fStopY);
+			else path.addLine(fStartX, fStartY, fStopX, fStopY);
+		}
+	}
+
+
+	// read all the segments in an edges string into the segment buffer, and return how many there are
+	private int getSegments(String edgesString) throws ParseException {
+		
+		// walk over the different instructions in the edges string
+		EdgeTokenizer tokenizer = new EdgeTokenizer(edgesString);
+		int count = 0;
+		boolean moved = false;
+		int lastX = 0;
+		int lastY = 0;
+		
+		while (tokenizer.next()) {
 			
-			// add the different instructions
-			switch (instruction) {
-				
-				// move to - special case, we do not store a line for this, but just update the last stop point
-				case '!':
-					lastStop = parseMoveTo(s);
-					break;
-					
-				case '|':
-				case '/':
-					lines.add(new StraightLine(lastStop, s));
-					break;
-					
-				case '[':
-				case ']':
-					lines.add(new QuadraticCurve(lastStop, s));
-					break;
+			// move to - special case, we do not store a segment for this, but just update the last stop point
+			if (tokenizer.getInstruction() == '!') {
+				lastX = tokenizer.getCoordinate(0);
+				lastY = tokenizer.getCoordinate(1);
+				moved = true;
+				continue;
 			}
+			
+			// a line needs a starting point
+			if (!moved) throw new ParseException("Edge doesn't start with a move to instruction: \"" + edgesString + "\"");
+			
+			// make room
+			if ((count + 1) * SegmentSize > fSegments.length) fSegments = Arrays.copyOf(fSegments, fSegments.length * 2);
+			int offset = count * SegmentSize;
+			
+			// every segment starts where the previous one stopped - a straight line has no control point
+			boolean curve = tokenizer.getPointCount() == 2;
+			fSegments[offset] = curve ? 1 : 0;
+			fSegments[offset + 1] = lastX;
+			fSegments[offset + 2] = lastY;
+			fSegments[offset + 3] = curve ? tokenizer.getCoordinate(0) : 0;
+			fSegments[offset + 4] = curve ? tokenizer.getCoordinate(1) : 0;
+			lastX = tokenizer.getCoordinate(curve ? 2 : 0);
+			lastY = tokenizer.getCoordinate(curve ? 3 : 1);
+			fSegments[offset + 5] = lastX;
+			fSegments[offset + 6] = lastY;
+			count++;
 		}
 		
 		// done
-		return lines;
-	}
-	
-	
-	// parse moveTo
-	private Point parseMoveTo(String s) throws ParseException {
-		Matcher matcher = Point.getRegExpCompiled().matcher(s);
-		if (!matcher.find() || matcher.groupCount() != 2) {
-            throw new ParseException("Invalid move to instruction found in DOMShape: \"" + s + "\"");
-        }
-		return new Point(matcher.group(1), matcher.group(2));
+		return count;
 	}
 	
 	
@@ -1,7 +1,6 @@
 package com.silenistudios.silenus.dom;
 
 import java.math.BigInteger;
-import java.util.regex.Pattern;
 
 /**
  * A simple point used in vector graphics.
@@ -10,10 +9,6 @@ import java.util.regex.Pattern;
  */
 public class Point {
 	
-	// regular expression for parsing a point - works with hex representation
-	private static final Pattern RegExp = Pattern.compile("((?:[-]?[0-9]*[\\.]?[0-9]+)|(?:[-]?[#]?[0-9A-F]*[\\.]?[0-9A-F]+))\\s+((?:[-]?[0-9]*[\\.]?[0-9]+)|(?:[-]?[#]?[0-9A-F]*[\\.]?[0-9A-F]+))");
-	
-	
 	// x-value in double twips (cause half-twips can appear)
 	int fX;
 	
@@ -24,29 +19,52 @@ public class Point {
 	public Point(String xTwip, String yTwip) {
 		
 		// hex or int?
-		if (xTwip.startsWith("#")) fX = (int)(parseHex(xTwip.substring(1)) * 2);
-		else {
-			try {
-				fX = (int)(Double.parseDouble(xTwip) * 2);
-			}
-			catch (NumberFormatException e) {
-				fX = (int)(parseHex(xTwip) * 2); 
-			}
+		fX = toHalfTwips(xTwip);
+		fY = toHalfTwips(yTwip);
+	}
+	
+	
+	// convert a coordinate to half-twips
+	static int toHalfTwips(String twip) {
+		return (int)(parseCoordinate(twip) * 2);
+	}
+	
+	
+	// parse a coordinate, which is either decimal or hex
+	private static double parseCoordinate(String twip) {
+		
+		// marked as hex
+		if (twip.startsWith("#")) return parseHex(twip.substring(1));
+		
+		// plain decimal - this is by far the most common case, so we check the characters rather than wait for an exception
+		if (isDecimal(twip)) return Double.parseDouble(twip);
+		
+		// anything else is hex, unless Java happens to accept it as a double
+		try {
+			return Double.parseDouble(twip);
 		}
-		if (yTwip.startsWith("#")) fY = (int)(parseHex(yTwip.substring(1)) * 2);
-		else {
-			try {
-				fY = (int)(Double.parseDouble(yTwip) * 2);
-			}
-			catch (NumberFormatException e) {
-				fY = (int)(parseHex(yTwip) * 2);
-			}
+		catch (NumberFormatException e) {
+			return parseHex(twip);
+		}
+	}
+	
+	
+	// does this string only consist of a sign, digits and a decimal point?
+	private static boolean isDecimal(String twip) {
+		int digits = 0;
+		int points = 0;
+		for (int i = 0; i < twip.length(); ++i) {
+			char c = twip.charAt(i);
+			if (c >= '0' && c <= '9') digits++;
+			else if (c == '.') points++;
+			else if (c != '-' || i != 0) return false;
 		}
+		return digits > 0 && points <= 1;
 	}
 	
 	
 	// parse hex value
-	private double parseHex(String twip) {
+	private static double parseHex(String twip) {
 		
 		// split up the integer and fraction
 		String[] split = twip.split("\\.");
@@ -99,18 +117,6 @@ public class Point {
 		}*/
 	
 	
-	// get the reg exp for parsing a point
-	public static String getRegExp() {
-		return RegExp.pattern();
-	}
-	
-	
-	// get the regular expression in compiled version
-	public static Pattern getRegExpCompiled() {
-		return RegExp;
-	}
-	
-	
 	// get x
 	public double getX() {
 		return fX / 20.0 / 2.0;
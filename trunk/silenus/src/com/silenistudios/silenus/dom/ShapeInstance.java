@@ -1,14 +1,20 @@
 package com.silenistudios.silenus.dom;
 
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.silenistudios.silenus.ParseException;
 import com.silenistudios.silenus.SceneRenderer;
 import com.silenistudios.silenus.ShapeRenderInterface;
 import com.silenistudios.silenus.dom.fillstyles.FillStyle;
-import com.silenistudios.silenus.dom.lines.Line;
 import com.silenistudios.silenus.xml.Node;
 import com.silenistudios.silenus.xml.XMLUtility;
 
@@ -24,8 +30,16 @@ public class ShapeInstance extends Instance {
 	// but since shapes are inherently not saved in a separate structure in the DOM, we generate an id ourselves.
 	long fId;
 	
-	// the internal static counter used to generate unique id's
-	private static long IdCounter = 0;
+	// the internal static counter used to generate unique id's - shapes can be loaded on several threads at once
+	private static final AtomicLong IdCounter = new AtomicLong();
+	
+	// hash of the styles and edges - shapes that are drawn the same have the same hash, so they are only exported once
+	// computed the first time it is needed - null if it couldn't be computed
+	String fContentKey;
+	boolean fHasContentKey = false;
+	
+	// charset used for hashing
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 	
 	// fill styles defined for this shape
 	Vector<FillStyle> fFillStyles = new Vector<FillStyle>();
@@ -33,11 +47,14 @@ public class ShapeInstance extends Instance {
 	// stroke styles defined for this shape
 	Vector<StrokeStyle> fStrokeStyles = new Vector<StrokeStyle>();
 	
-	// list of completed fill paths
-	Vector<Path> fFillPaths = new Vector<Path>();
+	// the raw edge data - kept until both the paths and the content key are computed from it
+	EdgeData fEdgeData;
+	
+	// list of completed fill paths - null until the paths are first needed
+	volatile Path[] fFillPaths = null;
 	
-	// list of completed stroke paths
-	Vector<Path> fStrokePaths = new Vector<Path>();
+	// list of completed stroke paths - generated together with the fill paths
+	Path[] fStrokePaths;
 	
 	
 	// constructor
@@ -65,50 +82,81 @@ public class ShapeInstance extends Instance {
 			}
 		}
 		
-		// generate the paths from the edges using PathGenerator
+		// read the edges - the paths are only generated from them when they're first needed
 		Node node = XMLUtility.findNode(root,  "edges");
-		PathGenerator pathGenerator = new PathGenerator();
-		pathGenerator.generate(XMLUtility, node);
-		fStrokePaths = pathGenerator.getStrokePaths();
-		fFillPaths = pathGenerator.getFillPaths();
-		// verify all the links with fill/stroke styles
-		for (Path path : fStrokePaths) {
-            if (path.getIndex() >= fStrokeStyles.size()) {
-                throw new ParseException("Non-existing stroke style refered in path");
-            }
-        }
-		for (Path path : fFillPaths) {
-            if (path.getIndex() >= fFillStyles.size()) {
-                throw new ParseException("Non-existing stroke style refered in path");
-            }
-        }
-		combineFillPathsOfSameStyle();
+		fEdgeData = new EdgeData(XMLUtility, node);
+		
+		// verify all the links with stroke styles
+		fEdgeData.validateStrokeStyles(fStrokeStyles.size());
+		
+		// a non-existing fill style is only an error if it's used by one of the fill paths - this is rare enough
+		// that we simply generate the paths right away to check
+		if (fEdgeData.hasInvalidFillStyle(fFillStyles.size())) {
+			generatePaths();
+			for (Path path : fFillPaths) {
+				if (path.getIndex() >= fFillStyles.size()) throw new ParseException("Non-existing fill style refered in path");
+			}
+		}
+		
 		// generate a unique id
-		fId = IdCounter++;
+		fId = IdCounter.getAndIncrement();
 		
 		// set the id with some random gibberish as the hash - let's hope nobody ever uses this exact library name
 		setLibraryItemName("########SHAPE#########+++" + fId + "+++");
 		
 	}
 
-    private void combineFillPathsOfSameStyle() {
-        Vector<Path> pathsToRemove = new Vector<Path>();
-        for (Path path1 : fFillPaths) {
-            for(Path path2 : fFillPaths) {
-                if (path1 != path2 && path1.getIndex() == path2.getIndex() &&
-                        !pathsToRemove.contains(path1) && !pathsToRemove.contains(path2)){
-                    for(Line line : path2.fLines) {
-                        path1.add(line);
-                    }
-                    pathsToRemove.add(path2);
-                }
-            }
-        }
-
-        for(Path path : pathsToRemove){
-            fFillPaths.remove(path);
-        }
-    }
+	// hash the styles and the raw edge data - this is the input of the path generation, so equal hashes give equal paths
+	private String computeContentKey() {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			// no hashing - the shape is exported on its own
+			return null;
+		}
+		
+		// the styles
+		StringBuilder ss = new StringBuilder();
+		for (FillStyle style : fFillStyles) ss.append(style.getJSON()).append("\n");
+		ss.append("|");
+		for (StrokeStyle style : fStrokeStyles) ss.append(style.getJSON()).append("\n");
+		ss.append("|");
+		digest.update(ss.toString().getBytes(UTF8));
+		
+		// the edges
+		fEdgeData.update(digest);
+		
+		// hex
+		ss.setLength(0);
+		for (byte b : digest.digest()) ss.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		return ss.toString();
+	}
+	
+	
+	// shapes with the same styles and edges are exported once
+	@Override
+	public String getExportKey() {
+		String key;
+		synchronized (this) {
+			if (!fHasContentKey) {
+				fContentKey = computeContentKey();
+				fHasContentKey = true;
+				releaseEdgeData();
+			}
+			key = fContentKey;
+		}
+		if (key == null) return super.getExportKey();
+		return "shape:" + key;
+	}
+	
+	
+	// drop the edge data once both the paths and the content key have been computed from it
+	private void releaseEdgeData() {
+		if (fFillPaths != null && fHasContentKey) fEdgeData = null;
+	}
+	
 	
 	// get a stroke style
 	public StrokeStyle getStrokeStyle(int index) {
@@ -122,24 +170,47 @@ public class ShapeInstance extends Instance {
 	}
 	
 	
+	// generate the paths the first time they're needed - this happens only once, even if several threads ask at the same time
+	private void generatePaths() {
+		if (fFillPaths != null) return;
+		synchronized (this) {
+			if (fFillPaths != null) return;
+			PathGenerator pathGenerator = new PathGenerator();
+			pathGenerator.generate(fEdgeData);
+			Vector<Path> strokePaths = pathGenerator.getStrokePaths();
+			Vector<Path> fillPaths = pathGenerator.getFillPaths();
+			fStrokePaths = strokePaths.toArray(new Path[strokePaths.size()]);
+			
+			// the fill paths are set last, so the stroke paths are visible to anyone who sees them
+			fFillPaths = fillPaths.toArray(new Path[fillPaths.size()]);
+			releaseEdgeData();
+		}
+	}
+	
+	
 	// get stroke paths
-	public Vector<Path> getStrokePaths() {
-		return fStrokePaths;
+	public List<Path> getStrokePaths() {
+		generatePaths();
+		return Collections.unmodifiableList(Arrays.asList(fStrokePaths));
 	}
 	
 	
 	// get fill paths
-	public Vector<Path> getFillPaths() {
-		return fFillPaths;
+	public List<Path> getFillPaths() {
+		generatePaths();
+		return Collections.unmodifiableList(Arrays.asList(fFillPaths));
 	}
 	
 	
 	// render the shape
 	public void render(ShapeRenderInterface renderer) {
+		generatePaths();
+		Path[] fillPaths = fFillPaths;
+		Path[] strokePaths = fStrokePaths;
 		
 		// draw all the fill paths
-		Vector<Path> fillPaths = getFillPaths();
-		for (Path path : fillPaths) {
+		for (int i = 0; i < fillPaths.length; ++i) {
+			Path path = fillPaths[i];
 			path.render(renderer);
 			
 			// depending on whether we're in mask mode or not, we fill or clip
@@ -151,8 +222,8 @@ public class ShapeInstance extends Instance {
 		
 		
 		// draw all the stroke paths
-		Vector<Path> strokePaths = getStrokePaths();
-		for (Path path : strokePaths) {
+		for (int i = 0; i < strokePaths.length; ++i) {
+			Path path = strokePaths[i];
 			path.render(renderer);
 			renderer.stroke(getStrokeStyle(path.getIndex()));
 		}
@@ -164,7 +235,9 @@ public class ShapeInstance extends Instance {
 	public String getJSON() {
 		
 		// first, construct a straight vector of the fill and stroke styles, 
-		
+		generatePaths();
+		Path[] fillPaths = fFillPaths;
+		Path[] strokePaths = fStrokePaths;
 		StringBuilder ss = new StringBuilder();
 		ss.append("{");
 		ss.append("\"type\":\"shape\",");
@@ -181,15 +254,15 @@ public class ShapeInstance extends Instance {
 		}
 		ss.append("],");
 		ss.append("\"strokePaths\":[");
-		for (int i = 0; i < fStrokePaths.size(); ++i) {
+		for (int i = 0; i < strokePaths.length; ++i) {
 			if (i != 0) ss.append(",");
-			ss.append(fStrokePaths.get(i).getJSON());
+			ss.append(strokePaths[i].getJSON());
 		}
 		ss.append("],");
 		ss.append("\"fillPaths\":[");
-		for (int i = 0; i < fFillPaths.size(); ++i) {
+		for (int i = 0; i < fillPaths.length; ++i) {
 			if (i != 0) ss.append(",");
-			ss.append(fFillPaths.get(i).getJSON());
+			ss.append(fillPaths[i].getJSON());
 		}
 		ss.append("]");
 		ss.append("}");
@@ -2,7 +2,6 @@ package com.silenistudios.silenus.dom;
 
 import java.util.HashSet;
 import java.util.Set;
-import java.util.Vector;
 
 import com.silenistudios.silenus.xml.Node;
 
@@ -93,9 +92,9 @@ public class SymbolInstance extends Instance {
 		
 		// render all sub-layers
 		Timeline timeline = getGraphic().getTimeline();
-		Vector<Layer> layers = timeline.getLayers();
-		for (Layer layer : layers) {
-			renderer.drawLayer(layer, frame, getCorrectFrame(frame), false);
+		int correctedFrame = getCorrectFrame(frame);
+		for (int i = 0; i < timeline.getLayerCount(); ++i) {
+			renderer.drawLayer(timeline.getLayer(i), frame, correctedFrame, false);
 		}
 	}
 	
@@ -4,8 +4,11 @@ import com.silenistudios.silenus.ParseException;
 import com.silenistudios.silenus.XFLLibrary;
 import com.silenistudios.silenus.xml.XMLUtility;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.Vector;
 
@@ -20,8 +23,8 @@ import com.silenistudios.silenus.xml.Node;
  */
 public class Timeline {
 	
-	// layers
-	Vector<Layer> fLayers = new Vector<Layer>();
+	// layers, in drawing order - fixed once the timeline is loaded
+	Layer[] fLayers;
 	
 	// name of the time line
 	String fName;
@@ -38,22 +41,24 @@ public class Timeline {
 		
 		// get the different layers - 
 		Vector<Node> layers = XMLUtility.findNodes(root,  "DOMLayer");
+		List<Layer> loadedLayers = new ArrayList<Layer>();
 		//for (int i = layers.size()-1; i >= 0; --i) {
 		for (int i = 0; i < layers.size(); ++i) {
 			Node node = layers.get(i);
 			
 			// create layer
-			Layer layer = new Layer(XMLUtility, library, fLayers, node);
+			Layer layer = new Layer(XMLUtility, library, loadedLayers, node);
 			
 			// update max frame index
 			if (layer.getMaxFrameIndex() > fMaxFrameIndex) fMaxFrameIndex = layer.getMaxFrameIndex();
 			
 			// add to list
-			fLayers.add(layer);
+			loadedLayers.add(layer);
 		}
 		
 		// we invert the order of the layers for more logical drawing
-		Collections.reverse(fLayers);
+		Collections.reverse(loadedLayers);
+		fLayers = loadedLayers.toArray(new Layer[loadedLayers.size()]);
 	}
 	
 	
@@ -72,8 +77,20 @@ public class Timeline {
 	// get layers
 	// note: layers are returned from lowest (drawn first) to highest (drawn last)
 	// this is opposite to the way flash represents its layers, with the last drawn layer on top
-	public Vector<Layer> getLayers() {
-		return fLayers;
+	public List<Layer> getLayers() {
+		return Collections.unmodifiableList(Arrays.asList(fLayers));
+	}
+	
+	
+	// get the number of layers
+	public int getLayerCount() {
+		return fLayers.length;
+	}
+	
+	
+	// get a layer, in the same order as getLayers
+	public Layer getLayer(int index) {
+		return fLayers[index];
 	}
 	
 	
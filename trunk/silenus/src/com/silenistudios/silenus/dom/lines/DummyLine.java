@@ -1,12 +0,0 @@
-package com.silenistudios.silenus.dom.lines;
-
-
-/**
- * This dummy line is only used to temporarily invert a line so that the round-the-clock algorithm can be used
- * to find the next matching 
- * @author Karel
- *
- */
-public class DummyLine {
-	
-}
@@ -1,45 +1,162 @@
 package com.silenistudios.silenus.memory;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
 
 /**
- * A virtual file in memory. Just keeps track of a byte array.
+ * A virtual file in memory. Just keeps track of a read-only byte buffer, which is shared
+ * by all readers of the file without copying. The buffer can live on or off the heap.
+ * When its factory runs out of memory, the file can be spilled to disk, after which it is read from there.
+ * A file is never spilled while streams on it are open.
  * @author Karel
  *
  */
 public class MemoryFile {
 	
-	// set?
-	private boolean fSet = false;
+	// data buffer - null as long as the file has not been written, or when it is spilled
+	private ByteBuffer fData = null;
+	
+	// number of bytes allocated for the data - the data is a view on a buffer that can be larger than the file
+	private int fAllocated = 0;
 	
-	// data array
-	private byte[] fData;
+	// file on disk the data was spilled to, if any
+	private File fSpillFile = null;
 	
 	// path
 	String fPath;
 	
+	// the factory that keeps track of the memory used by its files, if any
+	MemoryStreamFactory fFactory;
+	
+	// last time this file was used, according to the clock of the factory
+	volatile long fLastAccess = 0;
+	
+	// number of streams reading or writing this file that haven't been closed yet
+	private int fOpenCount = 0;
+	
 	
 	// create a new memory file
 	public MemoryFile(String path) {
+		this(path, null);
+	}
+	
+	
+	// create a new memory file that is accounted for by a factory
+	MemoryFile(String path, MemoryStreamFactory factory) {
 		fPath = path;
+		fFactory = factory;
 	}
 	
 	
 	// update
 	public void update(byte[] data) {
-		fData = data;
-		fSet = true;
+		update(ByteBuffer.wrap(data));
+	}
+	
+	
+	// update with the remaining bytes of a buffer - the buffer is not copied, so it should not be modified afterwards
+	// the whole buffer is kept alive by the file, so its entire capacity is accounted for
+	public void update(ByteBuffer data) {
+		ByteBuffer buffer = data.slice().asReadOnlyBuffer();
+		MemoryStreamFactory factory;
+		synchronized (this) {
+			int oldSize = getSize();
+			fData = buffer;
+			fAllocated = data.capacity();
+			deleteSpillFile();
+			factory = fFactory;
+			if (factory != null) {
+				factory.account(fAllocated - oldSize);
+				fLastAccess = factory.tick();
+			}
+		}
+		
+		// this might push the factory over its budget
+		if (factory != null) factory.enforceLimit(this);
 	}
 	
 	
 	// set?
-	public boolean isSet() {
-		return fSet;
+	public synchronized boolean isSet() {
+		return fData != null || fSpillFile != null;
 	}
 	
 	
-	// data
+	// can this file be spilled? Only if its data is in memory and nobody is reading or writing it
+	synchronized boolean isEvictable() {
+		return fData != null && fOpenCount == 0;
+	}
+	
+	
+	// a stream on this file was opened
+	synchronized void opened() {
+		fOpenCount++;
+	}
+	
+	
+	// a stream on this file was closed
+	void closed() {
+		MemoryStreamFactory factory;
+		synchronized (this) {
+			if (--fOpenCount > 0) return;
+			factory = fFactory;
+		}
+		
+		// the file can be spilled again, which might be needed to get back within budget
+		if (factory != null) factory.enforceLimit(null);
+	}
+	
+	
+	// get a read-only view on the data, positioned at the start of the file
+	// returns null if the file was spilled to disk - use open() to read the file wherever it is
+	public synchronized ByteBuffer getBuffer() {
+		return (fData == null) ? null : fData.duplicate();
+	}
+	
+	
+	// open the file for reading - the file stays in memory until the stream is closed
+	public synchronized InputStream open() throws IOException {
+		if (fFactory != null) fLastAccess = fFactory.tick();
+		InputStream in;
+		if (fData != null) in = new MemoryInputStream(fData.duplicate(), this);
+		else if (fSpillFile != null) in = new SpillInputStream(new FileInputStream(fSpillFile));
+		else throw new IOException("File not found: " + fPath);
+		opened();
+		return in;
+	}
+	
+	
+	// data - this returns a copy, use open() to read without copying
 	public byte[] getData() {
-		return fData;
+		try {
+			InputStream in = open();
+			try {
+				byte[] data = new byte[in.available()];
+				int offset = 0;
+				int n;
+				while (offset < data.length && (n = in.read(data, offset, data.length - offset)) != -1) offset += n;
+				return data;
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+	
+	
+	// get the number of bytes this file holds in memory, including the unused room in its buffer
+	public synchronized int getSize() {
+		return (fData == null) ? 0 : fAllocated;
 	}
 	
 	
@@ -47,4 +164,78 @@ public class MemoryFile {
 	public String getPath() {
 		return fPath;
 	}
+	
+	
+	// write the data to a file in the given directory and release the memory
+	// returns false if the file can't be spilled (anymore), because it isn't in memory or it is in use
+	synchronized boolean spill(File directory) throws IOException {
+		if (!isEvictable()) return false;
+		File file = File.createTempFile("silenus", ".spill", directory);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer data = fData.duplicate();
+			while (data.hasRemaining()) channel.write(data);
+		}
+		catch (IOException e) {
+			out.close();
+			file.delete();
+			throw e;
+		}
+		out.close();
+		fSpillFile = file;
+		drop();
+		return true;
+	}
+	
+	
+	// release the memory held by this file - the file no longer exists afterwards, unless it was spilled
+	synchronized void drop() {
+		int size = getSize();
+		fData = null;
+		if (fFactory != null) fFactory.account(-size);
+	}
+	
+	
+	// detach this file from its factory, releasing everything it holds
+	synchronized void release() {
+		drop();
+		deleteSpillFile();
+		fFactory = null;
+	}
+	
+	
+	// delete the spill file, if any
+	private void deleteSpillFile() {
+		if (fSpillFile != null) {
+			fSpillFile.delete();
+			fSpillFile = null;
+		}
+	}
+	
+	
+	/**
+	 * Stream on the spill file, which lets the file know when it is closed.
+	 */
+	private class SpillInputStream extends FilterInputStream {
+		
+		// closed already?
+		boolean fClosed = false;
+		
+		
+		// constructor
+		SpillInputStream(InputStream in) {
+			super(in);
+		}
+		
+		
+		@Override
+		public void close() throws IOException {
+			if (!fClosed) {
+				fClosed = true;
+				closed();
+			}
+			super.close();
+		}
+	}
 }
@@ -2,54 +2,93 @@ package com.silenistudios.silenus.memory;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Input stream that reads its file data from a virtual file in memory.
+ * The stream reads from its own view of the file, so the data is never copied.
+ * Use MemoryFile.open() to read a file, which also works when the file was spilled to disk.
  * @author Karel
  *
  */
 public class MemoryInputStream extends InputStream {
 
-	// datastore file
-	byte[] fData;
+	// view on the file data, positioned at the next byte to read
+	ByteBuffer fData;
 	
-	// index in the byte array
-	int fIndex = 0;
+	// marked position
+	int fMark = 0;
 	
+	// the file being read - told when the stream is closed
+	MemoryFile fFile;
 	
-	// create a datastore input stream for a given fla context and filename
-	public MemoryInputStream(MemoryFile file) {
-		fData = file.getData();
+	
+	// create a stream that reads a view on the data of a file
+	MemoryInputStream(ByteBuffer data, MemoryFile file) {
+		fData = data;
+		fFile = file;
 	}
 	
 	@Override
-	public int read() throws IOException {
-		int b = fData[fIndex++];
-		return (fIndex == fData.length) ? -1 : b; 
+	public int read() {
+		if (!fData.hasRemaining()) return -1;
+		return fData.get() & 0xFF;
 	}
 	
 	
 	@Override
 	public int read(byte[] b) {
-		if (b.length == 0) return 0;
-		if (fIndex == fData.length) return -1;
-		int i;
-		for (i = 0; i < b.length; ++i, ++fIndex) {
-			if (fIndex == fData.length) return i; 
-			b[i] = fData[fIndex];
-		}
-		return i;
+		return read(b, 0, b.length);
 	}
 	
 	@Override
 	public int read(byte[] b, int off, int len) {
-		if (b.length == 0) return 0;
-		if (fIndex == fData.length) return -1;
-		int i;
-		for (i = 0; i < len; ++i, ++fIndex) {
-			if (fIndex == fData.length) return i; 
-			b[i+off] = fData[fIndex];
+		if (len == 0) return 0;
+		if (!fData.hasRemaining()) return -1;
+		int n = Math.min(len, fData.remaining());
+		fData.get(b, off, n);
+		return n;
+	}
+	
+	
+	@Override
+	public long skip(long n) {
+		if (n <= 0) return 0;
+		int skipped = (int)Math.min(n, fData.remaining());
+		fData.position(fData.position() + skipped);
+		return skipped;
+	}
+	
+	
+	@Override
+	public int available() {
+		return fData.remaining();
+	}
+	
+	
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+	
+	
+	@Override
+	public void mark(int readLimit) {
+		fMark = fData.position();
+	}
+	
+	
+	@Override
+	public void reset() {
+		fData.position(fMark);
+	}
+	
+	
+	@Override
+	public void close() throws IOException {
+		if (fFile != null) {
+			fFile.closed();
+			fFile = null;
 		}
-		return i;
 	}
 }
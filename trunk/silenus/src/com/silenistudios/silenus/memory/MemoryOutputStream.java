@@ -1,41 +1,99 @@
 package com.silenistudios.silenus.memory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Output stream that writes to a virtual file in memory.
+ * Flushing publishes the bytes written so far to the file without copying them: the stream only ever
+ * appends to its buffer, so the published view never changes afterwards.
+ * The buffer is either a heap buffer or a direct (off-heap) buffer.
  * @author Karel
  *
  */
 public class MemoryOutputStream extends OutputStream {
 	
+	// initial buffer size
+	private static final int InitialSize = 4096;
+	
 	// datastore file
 	MemoryFile fFile;
 	
-	// data buffer
-	ByteArrayOutputStream fData = new ByteArrayOutputStream();
+	// data buffer, positioned at the end of the data written so far
+	ByteBuffer fData;
+	
+	// allocate direct buffers?
+	boolean fDirect;
+	
+	// number of bytes already published to the file
+	int fPublished = -1;
+	
+	// closed already?
+	boolean fClosed = false;
 	
 	// create a datastore object with this data
 	public MemoryOutputStream(MemoryFile file) {
+		this(file, false);
+	}
+	
+	
+	// create a datastore object that stores its data on or off the heap
+	public MemoryOutputStream(MemoryFile file, boolean direct) {
 		fFile = file;
+		fDirect = direct;
+		fData = allocate(InitialSize);
+		fFile.opened();
+	}
+	
+	
+	// allocate a buffer
+	private ByteBuffer allocate(int capacity) {
+		return fDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+	
+	
+	// make sure we have room for this many extra bytes
+	private void ensureCapacity(int extra) {
+		if (fData.remaining() >= extra) return;
+		int capacity = Math.max(fData.capacity() * 2, fData.position() + extra);
+		ByteBuffer data = allocate(capacity);
+		fData.flip();
+		data.put(fData);
+		fData = data;
 	}
 
 	@Override
-	public void write(int b) throws IOException {
-		fData.write(b);
+	public void write(int b) {
+		ensureCapacity(1);
+		fData.put((byte)b);
+	}
+	
+	
+	@Override
+	public void write(byte[] b, int off, int len) {
+		ensureCapacity(len);
+		fData.put(b, off, len);
 	}
 	
 	
 	@Override
 	public void flush() throws IOException {
 		super.flush();
-		fFile.update(fData.toByteArray());
+		if (fPublished == fData.position()) return;
+		ByteBuffer view = fData.duplicate();
+		view.flip();
+		fFile.update(view);
+		fPublished = fData.position();
 	}
 	
 	@Override
 	public void close() throws IOException {
+		flush();
+		if (!fClosed) {
+			fClosed = true;
+			fFile.closed();
+		}
 		super.close();
 	}
 }
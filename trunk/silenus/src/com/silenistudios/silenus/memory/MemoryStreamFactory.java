@@ -4,8 +4,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.silenistudios.silenus.StreamFactory;
 
@@ -18,38 +21,147 @@ import com.silenistudios.silenus.StreamFactory;
  * can then call set the stream factory on an XFLDocument and call XFLDocument.parse with the
  * correct filename for the output stream you wrote the FLA to.
  * XFLDocument will then work completely within this virtual filesystem.
+ * The factory is thread-safe, and keeps track of the number of bytes stored in its files.
+ * Optionally, file contents are stored off-heap, and the total size is bounded: when the budget
+ * is exceeded, the least recently used files that aren't open are spilled to a temporary directory.
+ * Data is never thrown away: without a spill directory, or if spilling fails, the budget is simply exceeded.
  * @author Karel
  *
  */
 public class MemoryStreamFactory implements StreamFactory {
 	
-	// map of string (filename) to byte array
-	Map<String, MemoryFile> fFiles = new HashMap<String, MemoryFile>();
+	// map of string (filename) to memory file
+	ConcurrentMap<String, MemoryFile> fFiles = new ConcurrentHashMap<String, MemoryFile>();
+	
+	// total number of bytes stored in all files
+	AtomicLong fSize = new AtomicLong(0);
+	
+	// clock used to find the least recently used files
+	AtomicLong fClock = new AtomicLong(0);
+	
+	// store file contents off-heap?
+	boolean fDirect = false;
+	
+	// maximum number of bytes held in memory
+	volatile long fMaxSize = Long.MAX_VALUE;
+	
+	// directory evicted files are spilled to - if null, nothing is evicted
+	volatile File fSpillDirectory = null;
+	
+	// lock held while evicting files
+	private final Object fEvictionLock = new Object();
+	
+	
+	// store the contents of files written from now on in direct (off-heap) buffers
+	public void setDirect(boolean direct) {
+		fDirect = direct;
+	}
+	
+	
+	// set the maximum number of bytes held in memory
+	public void setMaxSize(long maxSize) {
+		fMaxSize = maxSize;
+		enforceLimit(null);
+	}
+	
+	
+	// set the directory to spill evicted files to
+	// if no directory is set, the maximum size can't be enforced and is ignored
+	public void setSpillDirectory(File directory) {
+		fSpillDirectory = directory;
+		enforceLimit(null);
+	}
 	
 
 	@Override
 	public OutputStream createOutputStream(File file) throws IOException {
 		
 		// create a new memory file and set it
-		MemoryFile memoryFile = new MemoryFile(file.getPath());
-		fFiles.put(file.getPath(), memoryFile);
-		return new MemoryOutputStream(memoryFile);
+		MemoryFile memoryFile = new MemoryFile(file.getPath(), this);
+		MemoryFile old = fFiles.put(file.getPath(), memoryFile);
+		if (old != null) old.release();
+		return new MemoryOutputStream(memoryFile, fDirect);
 	}
 
 	@Override
 	public InputStream createInputStream(File file) throws IOException {
 		
 		// does not exist :(
-		if (!exists(file)) throw new IOException("File not found: " + file.getPath());
-		
-		// create a new memory file and set it
 		MemoryFile memoryFile = fFiles.get(file.getPath());
-		return new MemoryInputStream(memoryFile);
+		if (memoryFile == null) throw new IOException("File not found: " + file.getPath());
+		
+		// read from the file, wherever it is
+		return memoryFile.open();
 	}
 
 	@Override
 	public boolean exists(File file) {
-		return fFiles.containsKey(file.getPath()) && fFiles.get(file.getPath()).isSet();
+		MemoryFile memoryFile = fFiles.get(file.getPath());
+		return memoryFile != null && memoryFile.isSet();
+	}
+	
+	
+	// remove a file from the virtual file system
+	public void delete(File file) {
+		MemoryFile memoryFile = fFiles.remove(file.getPath());
+		if (memoryFile != null) memoryFile.release();
+	}
+	
+	
+	// remove all files, including the ones spilled to disk
+	public void clear() {
+		for (String path : fFiles.keySet()) delete(new File(path));
+	}
+	
+	
+	// get the total number of bytes stored in memory by this file system
+	public long getSize() {
+		return fSize.get();
+	}
+	
+	
+	// update the number of bytes stored
+	void account(long delta) {
+		fSize.addAndGet(delta);
+	}
+	
+	
+	// advance the clock
+	long tick() {
+		return fClock.incrementAndGet();
+	}
+	
+	
+	// spill the least recently used files until we're within budget again - the given file is never spilled,
+	// and neither are files that are still open
+	void enforceLimit(MemoryFile current) {
+		if (fSize.get() <= fMaxSize) return;
+		File directory = fSpillDirectory;
+		if (directory == null) return;
+		synchronized (fEvictionLock) {
+			
+			// files that were opened after we picked them
+			Set<MemoryFile> skipped = new HashSet<MemoryFile>();
+			while (fSize.get() > fMaxSize) {
+				
+				// find the least recently used file that can be spilled
+				MemoryFile victim = null;
+				for (MemoryFile file : fFiles.values()) {
+					if (file == current || skipped.contains(file) || !file.isEvictable()) continue;
+					if (victim == null || file.fLastAccess < victim.fLastAccess) victim = file;
+				}
+				
+				// nothing left to spill
+				if (victim == null) return;
+				
+				// spill it - if that fails, we stay over budget rather than lose data
+				try {
+					if (!victim.spill(directory)) skipped.add(victim);
+				}
+				catch (IOException e) {
+					return;
+				}
+			}
+		}
 	}
-
 }
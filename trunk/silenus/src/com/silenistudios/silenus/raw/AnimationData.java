@@ -2,9 +2,11 @@ package com.silenistudios.silenus.raw;
 
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Vector;
 
+import com.silenistudios.silenus.dom.BitmapInstance;
 import com.silenistudios.silenus.dom.Instance;
 
 /**
@@ -19,8 +21,12 @@ public class AnimationData implements Serializable {
 	// list of all instances used in this scene
 	Vector<Instance> fInstances = new Vector<Instance>();
 	
-	// convenient map for finding back the instances by library item name
-	Map<String, Integer> fLibraryItemNameToInstanceIndex = new HashMap<String, Integer>();
+	// convenient map for finding back the instances by export key - instances with the same content share the same entry
+	Map<String, Integer> fExportKeyToInstanceIndex = new HashMap<String, Integer>();
+	
+	// the instance index for each instance that was added before - the same instances are added on every frame,
+	// and this finds them back without computing or hashing their export key again
+	Map<Instance, Integer> fInstanceToInstanceIndex = new IdentityHashMap<Instance, Integer>();
 	
 	// animation frames
 	AnimationFrameData[] fFrames;
@@ -43,6 +49,9 @@ public class AnimationData implements Serializable {
 	// current list of masks
 	Vector<Integer> fMasks = new Vector<Integer>();
 	
+	// texture atlas the bitmaps are packed into, or null if they refer to their own image
+	TextureAtlas fAtlas = null;
+	
 	// constructor
 	public AnimationData(int animationLength, int width, int height, int frameRate) {
 		fAnimationLength = animationLength;
@@ -60,9 +69,9 @@ public class AnimationData implements Serializable {
 		// add to the correct frame
 		int idx = fFrames[fCurrentFrame].addAnimationInstanceData(data);
 		
-		// see if we encounter this instance for the first time - if yes, add to the library
+		// see if we encounter this instance (or one with the same content) for the first time - if yes, add to the library
 		Instance instance = data.getInstance();
-		String libraryItemName = instance.getLibraryItemName();
+		Integer index = fInstanceToInstanceIndex.get(instance);
 		
 		// is this a mask?
 		if (data.isMask()) {
@@ -76,13 +85,19 @@ public class AnimationData implements Serializable {
 		}
 		
 		// not yet in the library
-		if (!fLibraryItemNameToInstanceIndex.containsKey(libraryItemName)) {
-			fInstances.add(instance);
-			fLibraryItemNameToInstanceIndex.put(libraryItemName, fInstances.size()-1);
+		if (index == null) {
+			String exportKey = instance.getExportKey();
+			index = fExportKeyToInstanceIndex.get(exportKey);
+			if (index == null) {
+				fInstances.add(instance);
+				index = fInstances.size()-1;
+				fExportKeyToInstanceIndex.put(exportKey, index);
+			}
+			fInstanceToInstanceIndex.put(instance, index);
 		}
 		
 		// set the correct index
-		data.setIndex(fLibraryItemNameToInstanceIndex.get(libraryItemName));
+		data.setIndex(index);
 	}
 	
 	
@@ -142,6 +157,18 @@ public class AnimationData implements Serializable {
 	}
 	
 	
+	// set the texture atlas - the exported bitmaps then refer to a region of an atlas page, rather than to their own image
+	public void setAtlas(TextureAtlas atlas) {
+		fAtlas = atlas;
+	}
+	
+	
+	// get the texture atlas
+	public TextureAtlas getAtlas() {
+		return fAtlas;
+	}
+	
+	
 	// export to json
 	public String getJSON() {
 		StringBuilder ss = new StringBuilder();
@@ -149,11 +176,13 @@ public class AnimationData implements Serializable {
 		ss.append("\"frameRate\":").append(fFrameRate).append(",");
 		ss.append("\"width\":").append(fWidth).append(",");
 		ss.append("\"height\":").append(fHeight).append(",");
+		if (fAtlas != null) ss.append("\"atlas\":").append(fAtlas.getJSON()).append(",");
 		ss.append("\"instances\":[");
 		for (int i = 0; i < fInstances.size(); ++i) {
 			if (i != 0) ss.append(",");
 			Instance instance = fInstances.get(i);
-			ss.append(instance.getJSON());
+			if (fAtlas != null && instance instanceof BitmapInstance) ss.append(((BitmapInstance)instance).getJSON(fAtlas));
+			else ss.append(instance.getJSON());
 		}
 		ss.append("],");
 		ss.append("\"frames\":[");
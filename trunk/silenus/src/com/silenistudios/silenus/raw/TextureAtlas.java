@@ -0,0 +1,326 @@
+package com.silenistudios.silenus.raw;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import com.silenistudios.silenus.ParseException;
+import com.silenistudios.silenus.StreamFactory;
+import com.silenistudios.silenus.dat.PNGEncoder;
+import com.silenistudios.silenus.dom.Bitmap;
+
+/**
+ * A texture atlas packs a set of bitmaps into as few pages (images) as possible, so that a renderer can load
+ * all of them in one go and draw them from the same source. The bitmaps are packed on shelves, tallest first,
+ * with a transparent border of the given padding around each one. Bitmaps that don't fit on an empty page,
+ * or that can't be decoded, are left out of the atlas and keep referring to their own image.
+ * Bitmaps with the same content are only packed once.
+ * Attach an atlas to the animation data with AnimationData.setAtlas to reference it from the exported JSON.
+ * @author Karel
+ *
+ */
+public class TextureAtlas implements Serializable {
+	private static final long serialVersionUID = 6204618563316907817L;
+	
+	
+	/**
+	 * The part of a page a bitmap is packed into.
+	 */
+	public static class Region implements Serializable {
+		private static final long serialVersionUID = -3315718846152467391L;
+		
+		// the page
+		int fPage;
+		
+		// position and size on the page
+		int fX;
+		int fY;
+		int fWidth;
+		int fHeight;
+		
+		
+		// constructor
+		Region(int page, int x, int y, int width, int height) {
+			fPage = page;
+			fX = x;
+			fY = y;
+			fWidth = width;
+			fHeight = height;
+		}
+		
+		
+		// get the page index
+		public int getPage() {
+			return fPage;
+		}
+		
+		
+		// get x
+		public int getX() {
+			return fX;
+		}
+		
+		
+		// get y
+		public int getY() {
+			return fY;
+		}
+		
+		
+		// get width
+		public int getWidth() {
+			return fWidth;
+		}
+		
+		
+		// get height
+		public int getHeight() {
+			return fHeight;
+		}
+		
+		
+		// get the JSON
+		public String getJSON() {
+			StringBuilder ss = new StringBuilder();
+			ss.append("\"page\":").append(fPage).append(",");
+			ss.append("\"rect\":[").append(fX).append(",").append(fY).append(",").append(fWidth).append(",").append(fHeight).append("]");
+			return ss.toString();
+		}
+	}
+	
+	
+	/**
+	 * A row of bitmaps on a page, as high as the first (tallest) bitmap that was put on it.
+	 */
+	private static class Shelf {
+		
+		// top of the shelf, and height
+		int fY;
+		int fHeight;
+		
+		// first free x coordinate
+		int fX;
+		
+		
+		// constructor
+		Shelf(int y, int height, int x) {
+			fY = y;
+			fHeight = height;
+			fX = x;
+		}
+	}
+	
+	
+	// name of the atlas - the pages are called name0.png, name1.png, ...
+	String fName;
+	
+	// padding around each bitmap
+	int fPadding;
+	
+	// maximum size of a page
+	int fMaxWidth;
+	int fMaxHeight;
+	
+	// the region of each packed bitmap
+	Map<Bitmap, Region> fRegions = new HashMap<Bitmap, Region>();
+	
+	// the bitmaps on each page, in the order they were packed
+	Vector<Vector<Bitmap>> fPages = new Vector<Vector<Bitmap>>();
+	
+	// used size of each page
+	Vector<int[]> fPageSizes = new Vector<int[]>();
+	
+	
+	// pack a set of bitmaps, such as the ones returned by Timeline.getUsedImages()
+	public TextureAtlas(String name, Set<Bitmap> bitmaps, int padding, int maxWidth, int maxHeight) {
+		fName = name;
+		fPadding = padding;
+		fMaxWidth = maxWidth;
+		fMaxHeight = maxHeight;
+		
+		// get the actual size of each bitmap - the size in the library is not always accurate
+		// only the headers are read here, the images are decoded once when their page is drawn
+		final Map<Bitmap, int[]> sizes = new HashMap<Bitmap, int[]>();
+		Vector<Bitmap> sorted = new Vector<Bitmap>();
+		for (Bitmap bitmap : bitmaps) {
+			try {
+				sizes.put(bitmap, bitmap.getImageSize());
+				sorted.add(bitmap);
+			}
+			catch (ParseException e) {
+				// can't decode it - leave it out of the atlas
+			}
+		}
+		
+		// tallest first, so the shelves are filled up well - ties are broken by name to keep the result the same every time
+		Collections.sort(sorted, new Comparator<Bitmap>() {
+			@Override
+			public int compare(Bitmap a, Bitmap b) {
+				int[] sa = sizes.get(a);
+				int[] sb = sizes.get(b);
+				if (sa[1] != sb[1]) return sb[1] - sa[1];
+				if (sa[0] != sb[0]) return sb[0] - sa[0];
+				return a.getSourceHref().compareTo(b.getSourceHref());
+			}
+		});
+		
+		// pack them - bitmaps with the same content share the same region
+		// the shelves of each page are only needed while packing
+		Vector<Vector<Shelf>> shelves = new Vector<Vector<Shelf>>();
+		Map<String, Bitmap> byContent = new HashMap<String, Bitmap>();
+		for (Bitmap bitmap : sorted) {
+			String key = bitmap.getContentKey();
+			Bitmap original = (key == null) ? null : byContent.get(key);
+			if (original != null) {
+				Region region = fRegions.get(original);
+				if (region != null) fRegions.put(bitmap, region);
+				continue;
+			}
+			if (key != null) byContent.put(key, bitmap);
+			int[] size = sizes.get(bitmap);
+			pack(shelves, bitmap, size[0], size[1]);
+		}
+	}
+	
+	
+	// pack a bitmap on the first page with room for it
+	private void pack(Vector<Vector<Shelf>> pageShelves, Bitmap bitmap, int width, int height) {
+		
+		// doesn't even fit on an empty page
+		if (width + 2 * fPadding > fMaxWidth || height + 2 * fPadding > fMaxHeight) return;
+		
+		// try the existing pages, and a new page if none of them has room
+		for (int page = 0; page <= fPages.size(); ++page) {
+			if (page == fPages.size()) {
+				fPages.add(new Vector<Bitmap>());
+				fPageSizes.add(new int[] {0, 0});
+				pageShelves.add(new Vector<Shelf>());
+			}
+			Vector<Shelf> shelves = pageShelves.get(page);
+			
+			// find a shelf that is high enough and has room left
+			Shelf shelf = null;
+			for (Shelf s : shelves) {
+				if (height <= s.fHeight && s.fX + width + fPadding <= fMaxWidth) {
+					shelf = s;
+					break;
+				}
+			}
+			
+			// start a new shelf below the last one
+			if (shelf == null) {
+				int y = shelves.isEmpty() ? fPadding : shelves.lastElement().fY + shelves.lastElement().fHeight + fPadding;
+				if (y + height + fPadding > fMaxHeight) continue;
+				shelf = new Shelf(y, height, fPadding);
+				shelves.add(shelf);
+			}
+			
+			// put it on the shelf
+			fRegions.put(bitmap, new Region(page, shelf.fX, shelf.fY, width, height));
+			fPages.get(page).add(bitmap);
+			shelf.fX += width + fPadding;
+			int[] pageSize = fPageSizes.get(page);
+			pageSize[0] = Math.max(pageSize[0], shelf.fX);
+			pageSize[1] = Math.max(pageSize[1], shelf.fY + height + fPadding);
+			return;
+		}
+	}
+	
+	
+	// get the region a bitmap was packed into, or null if it isn't in the atlas
+	public Region getRegion(Bitmap bitmap) {
+		return fRegions.get(bitmap);
+	}
+	
+	
+	// get the number of pages
+	public int getPageCount() {
+		return fPages.size();
+	}
+	
+	
+	// get the file name of a page
+	public String getPagePath(int page) {
+		return fName + page + ".png";
+	}
+	
+	
+	// get the width of a page
+	public int getPageWidth(int page) {
+		return fPageSizes.get(page)[0];
+	}
+	
+	
+	// get the height of a page
+	public int getPageHeight(int page) {
+		return fPageSizes.get(page)[1];
+	}
+	
+	
+	// draw a page - every bitmap on it is decoded once
+	public BufferedImage getPage(int page) throws ParseException {
+		BufferedImage image = new BufferedImage(getPageWidth(page), getPageHeight(page), BufferedImage.TYPE_4BYTE_ABGR_PRE);
+		Graphics2D g = image.createGraphics();
+		try {
+			
+			// copy the pixels as they are, rather than blending them
+			g.setComposite(AlphaComposite.Src);
+			for (Bitmap bitmap : fPages.get(page)) {
+				Region region = fRegions.get(bitmap);
+				g.drawImage(bitmap.getImage(), region.fX, region.fY, null);
+			}
+		}
+		finally {
+			g.dispose();
+		}
+		return image;
+	}
+	
+	
+	// write all pages to a directory as png - pass null as encoder to use the default one
+	public void write(StreamFactory factory, String directory, PNGEncoder encoder) throws ParseException {
+		if (encoder == null) encoder = new PNGEncoder();
+		for (int page = 0; page < fPages.size(); ++page) {
+			File file = new File(directory, getPagePath(page));
+			try {
+				OutputStream out = factory.createOutputStream(file);
+				try {
+					encoder.write(getPage(page), out);
+				}
+				finally {
+					out.close();
+				}
+			}
+			catch (IOException e) {
+				throw new ParseException("Failed to write texture atlas page '" + file + "': " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	
+	// get the JSON - the list of pages
+	public String getJSON() {
+		StringBuilder ss = new StringBuilder();
+		ss.append("[");
+		for (int page = 0; page < fPages.size(); ++page) {
+			if (page != 0) ss.append(",");
+			ss.append("{");
+			ss.append("\"path\":\"").append(getPagePath(page)).append("\",");
+			ss.append("\"width\":").append(getPageWidth(page)).append(",");
+			ss.append("\"height\":").append(getPageHeight(page));
+			ss.append("}");
+		}
+		ss.append("]");
+		return ss.toString();
+	}
+}
@@ -0,0 +1,17 @@
+package com.silenistudios.silenus.xml;
+
+import com.silenistudios.silenus.ParseException;
+import com.silenistudios.silenus.StreamFactory;
+
+/**
+ * Optional interface for XML utilities that can parse only the root element of a document.
+ * XFLDocument uses this to read the names of the symbols in the library without parsing them entirely -
+ * with an XMLUtility that doesn't implement it, the whole document is parsed instead.
+ * @author Karel
+ *
+ */
+public interface RootParser {
+	
+	// parse only the root element of a document - the returned node has the attributes of the root, but no children
+	public Node parseXMLRoot(StreamFactory streamFactory, String root, String fileName) throws ParseException;
+}
@@ -24,6 +24,12 @@ public interface XMLUtility {
 	// find a node non-recursively
 	public Node findNodeNonRecursive(Node root, String nodeName) throws ParseException;
 	
+	// get the element with a given tag, or null if findNode would fail because there is none or more than one
+	public Node findOptionalNode(Node root, String nodeName) throws ParseException;
+	
+	// find a node non-recursively, or null if there is none
+	public Node findOptionalNodeNonRecursive(Node root, String nodeName) throws ParseException;
+	
 	// is there such a node?
 	public boolean hasNode(Node root, String nodeName) throws ParseException;
 	
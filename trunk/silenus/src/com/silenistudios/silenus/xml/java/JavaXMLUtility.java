@@ -2,6 +2,7 @@ package com.silenistudios.silenus.xml.java;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 
 import com.silenistudios.silenus.ParseException;
 import com.silenistudios.silenus.StreamFactory;
@@ -11,8 +12,13 @@ import java.util.Vector;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import com.silenistudios.silenus.xml.Node;
+import com.silenistudios.silenus.xml.RootParser;
 import com.silenistudios.silenus.xml.XMLUtility;
 
 import org.w3c.dom.Element;
@@ -25,7 +31,7 @@ import org.xml.sax.SAXException;
  * @author Karel
  *
  */
-public class JavaXMLUtility implements XMLUtility {
+public class JavaXMLUtility implements XMLUtility, RootParser {
 	
 	// parse a document
 	@Override
@@ -45,6 +51,49 @@ public class JavaXMLUtility implements XMLUtility {
 		
 	}
 	
+	// parse only the root element of a document - the rest of the file is never read
+	@Override
+	public Node parseXMLRoot(StreamFactory streamFactory, String root, String fileName) throws ParseException {
+		InputStream in = null;
+		XMLStreamReader reader = null;
+		try {
+			in = streamFactory.createInputStream(new File(root, fileName));
+			reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+			while (reader.hasNext()) {
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) continue;
+				
+				// copy the root element and its attributes into an empty document
+				Element element = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument().createElement(getName(reader.getPrefix(), reader.getLocalName()));
+				for (int i = 0; i < reader.getAttributeCount(); ++i) {
+					element.setAttribute(getName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+				}
+				return new JavaNode(element);
+			}
+			throw new ParseException("XMLUtility: no root element found in file '" + fileName + "'");
+		} catch (ParserConfigurationException e) {
+			throw new ParseException("Parser configuration exception occured when parsing file '" + fileName + "': " + e.getMessage(), e);
+		} catch (XMLStreamException e) {
+			throw new ParseException("XML stream exception occured when parsing file '" + fileName + "': " + e.getMessage(), e);
+		} catch (IOException e) {
+			throw new ParseException("IO exception occured when parsing file '" + fileName + "': " + e.getMessage(), e);
+		} finally {
+			try {
+				if (reader != null) reader.close();
+				if (in != null) in.close();
+			} catch (Exception e) {
+				// nothing left to do
+			}
+		}
+	}
+	
+	
+	// get the qualified name of an element or attribute
+	private String getName(String prefix, String localName) {
+		if (prefix == null || prefix.length() == 0) return localName;
+		return prefix + ":" + localName;
+	}
+	
+	
 	// get the first element with a given tag
 	@Override
 	public Node findNode(Node nodeRoot, String nodeName) throws ParseException {
@@ -67,6 +116,29 @@ public class JavaXMLUtility implements XMLUtility {
 	}
 	
 	
+	// get the element with a given tag, or null if there isn't exactly one
+	@Override
+	public Node findOptionalNode(Node nodeRoot, String nodeName) throws ParseException {
+		org.w3c.dom.Node root = ((JavaNode)nodeRoot).getNode();
+		if (root.getNodeType() != org.w3c.dom.Node.ELEMENT_NODE) throw new ParseException("XMLUtility: node " + nodeName + " is not an element");
+		NodeList nodes = ((Element)root).getElementsByTagName(nodeName);
+		if (nodes.getLength() != 1) return null;
+		return new JavaNode(nodes.item(0));
+	}
+	
+	
+	// get the first child element with a given tag, or null if there is none
+	@Override
+	public Node findOptionalNodeNonRecursive(Node nodeRoot, String nodeName) throws ParseException {
+		NodeList children = ((JavaNode)nodeRoot).getNode().getChildNodes();
+		for (int i = 0; i < children.getLength(); ++i) {
+			org.w3c.dom.Node child = children.item(i);
+			if (child.getNodeType() == org.w3c.dom.Node.ELEMENT_NODE && child.getNodeName().equals(nodeName)) return new JavaNode(child);
+		}
+		return null;
+	}
+	
+	
 	// is there a node with this name?
 	@Override
 	public boolean hasNode(Node nodeRoot, String nodeName) throws ParseException {
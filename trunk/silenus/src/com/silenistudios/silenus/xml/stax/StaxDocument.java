@@ -0,0 +1,94 @@
+package com.silenistudios.silenus.xml.stax;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index over all elements of a parsed document. Elements are numbered in document order,
+ * and every node knows the range of numbers taken by its subtree. For every tag name, the
+ * sorted numbers of the elements with that tag are kept, so a recursive lookup below a node
+ * comes down to two binary searches instead of a walk over the whole subtree.
+ * @author Karel
+ *
+ */
+class StaxDocument {
+	
+	// no elements
+	private static final int[] NONE = new int[0];
+	
+	// all elements, in document order
+	StaxNode[] fElements;
+	
+	// tag name to the sorted element numbers with that tag
+	Map<String, int[]> fTagIndex;
+	
+	
+	// create the index - the nodes must already be numbered
+	StaxDocument(StaxNode[] elements) {
+		fElements = elements;
+		
+		// count the elements for every tag first, so the index arrays can be allocated at their exact size
+		Map<String, int[]> counts = new HashMap<String, int[]>();
+		for (StaxNode node : elements) {
+			int[] count = counts.get(node.fName);
+			if (count == null) counts.put(node.fName, count = new int[1]);
+			count[0]++;
+		}
+		fTagIndex = new HashMap<String, int[]>(counts.size() * 2);
+		for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+			fTagIndex.put(entry.getKey(), new int[entry.getValue()[0]]);
+			entry.getValue()[0] = 0;
+		}
+		for (StaxNode node : elements) {
+			int[] count = counts.get(node.fName);
+			fTagIndex.get(node.fName)[count[0]++] = node.fIndex;
+		}
+	}
+	
+	
+	// get the sorted element numbers for a tag
+	private int[] getIndex(String tag) {
+		int[] index = fTagIndex.get(tag);
+		return index == null ? NONE : index;
+	}
+	
+	
+	// find the position of the first entry in the index that is larger than value
+	private static int upperBound(int[] index, int value) {
+		int low = 0;
+		int high = index.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (index[mid] <= value) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+	
+	
+	// get the number of descendants of a node with the given tag
+	int count(StaxNode root, String tag) {
+		int[] index = getIndex(tag);
+		return upperBound(index, root.fEnd - 1) - upperBound(index, root.fIndex);
+	}
+	
+	
+	// get the first descendant of a node with the given tag, or null if there is none
+	StaxNode first(StaxNode root, String tag) {
+		int[] index = getIndex(tag);
+		int i = upperBound(index, root.fIndex);
+		if (i == index.length || index[i] >= root.fEnd) return null;
+		return fElements[index[i]];
+	}
+	
+	
+	// get the descendants of a node with the given tag, in document order
+	StaxNode[] all(StaxNode root, String tag) {
+		int[] index = getIndex(tag);
+		int from = upperBound(index, root.fIndex);
+		int to = upperBound(index, root.fEnd - 1);
+		StaxNode[] nodes = new StaxNode[to - from];
+		for (int i = from; i < to; ++i) nodes[i - from] = fElements[index[i]];
+		return nodes;
+	}
+}
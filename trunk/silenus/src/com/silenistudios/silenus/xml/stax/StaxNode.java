@@ -0,0 +1,105 @@
+package com.silenistudios.silenus.xml.stax;
+
+import com.silenistudios.silenus.xml.Node;
+
+/**
+ * Compact, pre-indexed node built by the StaxXMLUtility. Only elements are kept: the attributes are
+ * stored as parallel arrays of interned names and values, and the child elements are kept both in
+ * document order and grouped by tag name. Recursive lookups go through the index of the document
+ * the node belongs to, so none of the lookups walk the tree or allocate.
+ * @author Karel
+ *
+ */
+public class StaxNode implements Node {
+	
+	// no children or attributes
+	static final StaxNode[] NO_CHILDREN = new StaxNode[0];
+	static final String[] NO_ATTRIBUTES = new String[0];
+	static final StaxNode[][] NO_GROUPS = new StaxNode[0][];
+	
+	// the document this node belongs to
+	StaxDocument fDocument;
+	
+	// number of this node in document order, and the number just past its last descendant
+	int fIndex;
+	int fEnd;
+	
+	// the tag name
+	String fName;
+	
+	// attribute names (interned) and their values
+	String[] fAttributeNames;
+	String[] fAttributeValues;
+	
+	// the child elements, in document order
+	StaxNode[] fChildren = NO_CHILDREN;
+	
+	// the child elements grouped by tag - fChildTags[i] is the tag of all nodes in fChildGroups[i]
+	String[] fChildTags = NO_ATTRIBUTES;
+	StaxNode[][] fChildGroups = NO_GROUPS;
+	
+	
+	// create a node
+	StaxNode(String name, String[] attributeNames, String[] attributeValues, int index) {
+		fName = name;
+		fAttributeNames = attributeNames;
+		fAttributeValues = attributeValues;
+		fIndex = index;
+		fEnd = index + 1;
+	}
+	
+	
+	@Override
+	public String getNodeName() {
+		return fName;
+	}
+	
+	
+	// get the value of an attribute, or null if it doesn't exist
+	String getAttribute(String attributeName) {
+		for (int i = 0; i < fAttributeNames.length; ++i) {
+			if (fAttributeNames[i] == attributeName || fAttributeNames[i].equals(attributeName)) return fAttributeValues[i];
+		}
+		return null;
+	}
+	
+	
+	// get the first child with the given tag, or null if there is none
+	StaxNode getChild(String tag) {
+		for (int i = 0; i < fChildTags.length; ++i) {
+			if (fChildTags[i] == tag || fChildTags[i].equals(tag)) return fChildGroups[i][0];
+		}
+		return null;
+	}
+	
+	
+	// set the children, in document order, and group them by tag
+	void setChildren(StaxNode[] children) {
+		fChildren = children;
+		
+		// find the distinct tags - there are only a few per node, so a linear scan is fine
+		String[] tags = new String[children.length];
+		int[] counts = new int[children.length];
+		int nTags = 0;
+		for (StaxNode child : children) {
+			int i = 0;
+			while (i < nTags && tags[i] != child.fName) ++i;
+			if (i == nTags) tags[nTags++] = child.fName;
+			counts[i]++;
+		}
+		
+		// fill the groups
+		fChildTags = new String[nTags];
+		fChildGroups = new StaxNode[nTags][];
+		for (int i = 0; i < nTags; ++i) {
+			fChildTags[i] = tags[i];
+			fChildGroups[i] = new StaxNode[counts[i]];
+			counts[i] = 0;
+		}
+		for (StaxNode child : children) {
+			int i = 0;
+			while (fChildTags[i] != child.fName) ++i;
+			fChildGroups[i][counts[i]++] = child;
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package com.silenistudios.silenus.xml.stax;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Vector;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.silenistudios.silenus.ParseException;
+import com.silenistudios.silenus.StreamFactory;
+import com.silenistudios.silenus.xml.Node;
+import com.silenistudios.silenus.xml.RootParser;
+import com.silenistudios.silenus.xml.XMLUtility;
+
+/**
+ * XML utility that builds its nodes straight from StAX events, without going through a W3C DOM tree.
+ * Only elements and their attributes are kept, text and comments are dropped as they are read.
+ * This keeps the memory needed for a parsed symbol a fraction of what the JavaXMLUtility needs,
+ * which adds up quickly on large symbol libraries.
+ * The document is indexed while it is parsed, so recursive lookups such as findNode and hasNode
+ * don't scan the subtree, and none of the single-node lookups allocate.
+ * @author Karel
+ *
+ */
+public class StaxXMLUtility implements XMLUtility, RootParser {
+	
+	// the StAX factory for each thread - the JDK factory recycles its readers, so it can't be shared between threads
+	private final ThreadLocal<XMLInputFactory> fFactory = new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+			return factory;
+		}
+	};
+	
+	
+	// create the utility
+	public StaxXMLUtility() {
+	}
+	
+	
+	// parse a document
+	@Override
+	public Node parseXML(StreamFactory streamFactory, String root, String fileName) throws ParseException {
+		return parse(streamFactory, root, fileName, false);
+	}
+	
+	
+	// parse only the root element of a document
+	@Override
+	public Node parseXMLRoot(StreamFactory streamFactory, String root, String fileName) throws ParseException {
+		return parse(streamFactory, root, fileName, true);
+	}
+	
+	
+	// parse a document, stopping after the root element if rootOnly is set
+	private StaxNode parse(StreamFactory streamFactory, String root, String fileName, boolean rootOnly) throws ParseException {
+		InputStream in = null;
+		XMLStreamReader reader = null;
+		try {
+			in = streamFactory.createInputStream(new File(root, fileName));
+			reader = fFactory.get().createXMLStreamReader(in);
+			
+			// all elements in document order, the elements that are still open, and the children collected for each of them so far
+			ArrayList<StaxNode> elements = new ArrayList<StaxNode>();
+			ArrayList<StaxNode> open = new ArrayList<StaxNode>();
+			ArrayList<ArrayList<StaxNode>> children = new ArrayList<ArrayList<StaxNode>>();
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					StaxNode node = readElement(reader, elements.size());
+					if (!open.isEmpty()) children.get(children.size()-1).add(node);
+					elements.add(node);
+					if (rootOnly) break;
+					open.add(node);
+					children.add(new ArrayList<StaxNode>(4));
+				}
+				else if (event == XMLStreamConstants.END_ELEMENT) {
+					StaxNode node = open.remove(open.size()-1);
+					ArrayList<StaxNode> list = children.remove(children.size()-1);
+					node.fEnd = elements.size();
+					if (!list.isEmpty()) node.setChildren(list.toArray(new StaxNode[list.size()]));
+				}
+			}
+			if (elements.isEmpty()) throw new ParseException("XMLUtility: no root element found in file '" + fileName + "'");
+			
+			// build the index
+			StaxDocument document = new StaxDocument(elements.toArray(new StaxNode[elements.size()]));
+			for (StaxNode node : document.fElements) node.fDocument = document;
+			return document.fElements[0];
+		}
+		catch (XMLStreamException e) {
+			throw new ParseException("XML stream exception occured when parsing file '" + fileName + "': " + e.getMessage(), e);
+		}
+		catch (IOException e) {
+			throw new ParseException("IO exception occured when parsing file '" + fileName + "': " + e.getMessage(), e);
+		}
+		finally {
+			try {
+				if (reader != null) reader.close();
+				if (in != null) in.close();
+			}
+			catch (Exception e) {
+				// nothing left to do
+			}
+		}
+	}
+	
+	
+	// read the current element and its attributes
+	private StaxNode readElement(XMLStreamReader reader, int index) {
+		String name = getName(reader.getPrefix(), reader.getLocalName());
+		int count = reader.getAttributeCount();
+		if (count == 0) return new StaxNode(name, StaxNode.NO_ATTRIBUTES, StaxNode.NO_ATTRIBUTES, index);
+		String[] names = new String[count];
+		String[] values = new String[count];
+		for (int i = 0; i < count; ++i) {
+			names[i] = getName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+			values[i] = reader.getAttributeValue(i);
+		}
+		return new StaxNode(name, names, values, index);
+	}
+	
+	
+	// get the qualified name as the DOM would report it - names are interned, as they repeat throughout the document
+	private String getName(String prefix, String localName) {
+		if (prefix == null || prefix.length() == 0) return localName.intern();
+		return (prefix + ":" + localName).intern();
+	}
+	
+	
+	// get the first element with a given tag
+	@Override
+	public Node findNode(Node nodeRoot, String nodeName) throws ParseException {
+		StaxNode root = (StaxNode)nodeRoot;
+		if (root.fDocument.count(root, nodeName) != 1) throw new ParseException("XMLUtility: " + nodeName + " not found or too many found");
+		return root.fDocument.first(root, nodeName);
+	}
+	
+	
+	// get the first element with a given tag, without searching recursively down the tree
+	@Override
+	public Node findNodeNonRecursive(Node nodeRoot, String nodeName) throws ParseException {
+		StaxNode child = ((StaxNode)nodeRoot).getChild(nodeName);
+		if (child == null) throw new ParseException("XMLUtility: " + nodeName + " not found");
+		return child;
+	}
+	
+	
+	// get the element with a given tag, or null if there isn't exactly one
+	@Override
+	public Node findOptionalNode(Node nodeRoot, String nodeName) throws ParseException {
+		StaxNode root = (StaxNode)nodeRoot;
+		if (root.fDocument.count(root, nodeName) != 1) return null;
+		return root.fDocument.first(root, nodeName);
+	}
+	
+	
+	// get the first child element with a given tag, or null if there is none
+	@Override
+	public Node findOptionalNodeNonRecursive(Node nodeRoot, String nodeName) throws ParseException {
+		return ((StaxNode)nodeRoot).getChild(nodeName);
+	}
+	
+	
+	// is there a node with this name?
+	@Override
+	public boolean hasNode(Node nodeRoot, String nodeName) throws ParseException {
+		StaxNode root = (StaxNode)nodeRoot;
+		return root.fDocument.first(root, nodeName) != null;
+	}
+	
+	
+	// get all subnodes with the given tag
+	@Override
+	public Vector<Node> findNodes(Node nodeRoot, String nodeName) throws ParseException {
+		StaxNode root = (StaxNode)nodeRoot;
+		StaxNode[] nodes = root.fDocument.all(root, nodeName);
+		Vector<Node> v = new Vector<Node>(nodes.length);
+		for (StaxNode node : nodes) v.add(node);
+		return v;
+	}
+	
+	
+	// get all child elements
+	@Override
+	public Vector<Node> getChildElements(Node nodeRoot) {
+		StaxNode[] children = ((StaxNode)nodeRoot).fChildren;
+		Vector<Node> v = new Vector<Node>(children.length);
+		for (StaxNode child : children) v.add(child);
+		return v;
+	}
+	
+	
+	// does the node have this attribute?
+	@Override
+	public boolean hasAttribute(Node node, String attributeName) {
+		return ((StaxNode)node).getAttribute(attributeName) != null;
+	}
+	
+	
+	// get the attribute
+	@Override
+	public String getAttribute(Node node, String attributeName) throws ParseException {
+		String value = ((StaxNode)node).getAttribute(attributeName);
+		if (value == null) throw new ParseException("XMLUtility: attribute '" + attributeName + "' does not exist in node '" + node.getNodeName() + "'");
+		return value;
+	}
+	
+	
+	// true/false strings
+	private final static String[] TRUE_STRINGS = new String[]{"yes", "true", "1", "ok"};
+	
+	// get boolean attribute
+	@Override
+	public boolean getBooleanAttribute(Node node, String attributeName) throws ParseException {
+		String s = getAttribute(node, attributeName);
+		for (String match : TRUE_STRINGS) {
+			if (s.equalsIgnoreCase(match)) return true;
+		}
+		return false;
+	}
+	
+	
+	// get double attribute
+	@Override
+	public double getDoubleAttribute(Node node, String attributeName) throws ParseException {
+		String s = getAttribute(node, attributeName);
+		return Double.parseDouble(s);
+	}
+	
+	
+	// get int attribute
+	@Override
+	public int getIntAttribute(Node node, String attributeName) throws ParseException {
+		String s = getAttribute(node, attributeName);
+		return Integer.parseInt(s);
+	}
+	
+	
+	// get string attribute with default value
+	@Override
+	public String getAttribute(Node node, String attributeName, String defaultValue) throws ParseException {
+		String value = ((StaxNode)node).getAttribute(attributeName);
+		return value == null ? defaultValue : value;
+	}
+	
+	
+	// get boolean attribute with default value
+	@Override
+	public boolean getBooleanAttribute(Node node, String attributeName, boolean defaultValue) throws ParseException {
+		if (!hasAttribute(node, attributeName)) return defaultValue;
+		return getBooleanAttribute(node, attributeName);
+	}
+	
+	
+	// get double attribute with default value
+	@Override
+	public double getDoubleAttribute(Node node, String attributeName, double defaultValue) throws ParseException {
+		if (!hasAttribute(node, attributeName)) return defaultValue;
+		return getDoubleAttribute(node, attributeName);
+	}
+	
+	
+	// get int attribute with default value
+	@Override
+	public int getIntAttribute(Node node, String attributeName, int defaultValue) throws ParseException {
+		if (!hasAttribute(node, attributeName)) return defaultValue;
+		return getIntAttribute(node, attributeName);
+	}
+
+}
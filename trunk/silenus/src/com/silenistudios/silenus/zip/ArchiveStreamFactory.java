@@ -0,0 +1,80 @@
+package com.silenistudios.silenus.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.silenistudios.silenus.StreamFactory;
+
+/**
+ * Base class for stream factories that serve the files of a CS5 .FLA file straight out of the zip archive.
+ * The archive is mounted on a root directory: every file that is requested below that root is looked up
+ * in the archive. Files that are not part of the archive (such as the png's reconstructed from the binary .dat files)
+ * are passed on to a second stream factory, which also receives all output streams.
+ * @author Karel
+ *
+ */
+public abstract class ArchiveStreamFactory implements StreamFactory {
+	
+	// root directory the archive is mounted on
+	String fRoot;
+	
+	// factory used for everything that is not in the archive
+	StreamFactory fStreamFactory;
+	
+	
+	// mount an archive on the given root directory
+	protected ArchiveStreamFactory(String root, StreamFactory factory) {
+		fRoot = (root.length() == 0) ? "" : new File(root).getPath();
+		fStreamFactory = factory;
+	}
+	
+	
+	// get the name of the archive entry for a file, or null if the file does not lie below the root directory
+	protected String getEntryName(File file) {
+		String path = file.getPath();
+		if (!path.startsWith(fRoot)) return null;
+		if (path.length() > fRoot.length() && fRoot.length() > 0 && path.charAt(fRoot.length()) != File.separatorChar) return null;
+		
+		// strip the root and any leading separators, and use zip separators
+		int start = fRoot.length();
+		while (start < path.length() && path.charAt(start) == File.separatorChar) ++start;
+		return path.substring(start).replace(File.separatorChar, '/');
+	}
+	
+	
+	// does the archive contain a file with this entry name?
+	protected abstract boolean hasEntry(String name);
+	
+	
+	// open an entry of the archive - only called for entries that exist
+	protected abstract InputStream openEntry(String name) throws IOException;
+	
+	
+	@Override
+	public OutputStream createOutputStream(File file) throws IOException {
+		return fStreamFactory.createOutputStream(file);
+	}
+	
+	@Override
+	public InputStream createInputStream(File file) throws IOException {
+		
+		// read from the archive if we can
+		String name = getEntryName(file);
+		if (name != null && hasEntry(name)) return openEntry(name);
+		
+		// not in the archive
+		return fStreamFactory.createInputStream(file);
+	}
+	
+	@Override
+	public boolean exists(File file) {
+		String name = getEntryName(file);
+		return (name != null && hasEntry(name)) || fStreamFactory.exists(file);
+	}
+	
+	
+	// release the archive
+	public abstract void close() throws IOException;
+}
@@ -0,0 +1,75 @@
+package com.silenistudios.silenus.zip;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Input stream that reads from a byte buffer, without copying the buffer.
+ * The stream works on its own view of the buffer, so several streams can read the same buffer at once.
+ * @author Karel
+ *
+ */
+public class ByteBufferInputStream extends InputStream {
+	
+	// the buffer, positioned at the next byte to read
+	ByteBuffer fBuffer;
+	
+	// marked position
+	int fMark = -1;
+	
+	
+	// create a stream that reads the remaining bytes of the buffer
+	public ByteBufferInputStream(ByteBuffer buffer) {
+		fBuffer = buffer.slice();
+	}
+	
+	
+	@Override
+	public int read() {
+		if (!fBuffer.hasRemaining()) return -1;
+		return fBuffer.get() & 0xFF;
+	}
+	
+	
+	@Override
+	public int read(byte[] b, int off, int len) {
+		if (len == 0) return 0;
+		if (!fBuffer.hasRemaining()) return -1;
+		int n = Math.min(len, fBuffer.remaining());
+		fBuffer.get(b, off, n);
+		return n;
+	}
+	
+	
+	@Override
+	public long skip(long n) {
+		if (n <= 0) return 0;
+		int skipped = (int)Math.min(n, fBuffer.remaining());
+		fBuffer.position(fBuffer.position() + skipped);
+		return skipped;
+	}
+	
+	
+	@Override
+	public int available() {
+		return fBuffer.remaining();
+	}
+	
+	
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+	
+	
+	@Override
+	public void mark(int readLimit) {
+		fMark = fBuffer.position();
+	}
+	
+	
+	@Override
+	public void reset() {
+		fBuffer.position(fMark == -1 ? 0 : fMark);
+	}
+}
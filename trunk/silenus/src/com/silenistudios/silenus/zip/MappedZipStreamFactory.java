@@ -0,0 +1,72 @@
+package com.silenistudios.silenus.zip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.silenistudios.silenus.StreamFactory;
+
+/**
+ * This factory memory-maps a CS5 .FLA file once and indexes its central directory.
+ * It can also serve an archive that is already held in a buffer, such as an upload.
+ * An entry is only inflated when an input stream is created for it; exists() is answered from the index.
+ * Bitmaps or symbols that are never opened are never decompressed.
+ * @author Karel
+ *
+ */
+public class MappedZipStreamFactory extends ArchiveStreamFactory {
+	
+	// the index of the archive
+	ZipIndex fIndex;
+	
+	
+	// map an archive and mount it on the given root directory
+	public MappedZipStreamFactory(File archive, String root, StreamFactory factory) throws IOException {
+		super(root, factory);
+		
+		// map the file - the mapping stays valid after the channel is closed
+		RandomAccessFile file = new RandomAccessFile(archive, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException("Archive too large to map: '" + archive.getPath() + "'");
+			fIndex = new ZipIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally {
+			file.close();
+		}
+	}
+	
+	
+	// index an archive held in a buffer and mount it on the given root directory - the buffer is not copied
+	public MappedZipStreamFactory(ByteBuffer archive, String root, StreamFactory factory) throws IOException {
+		super(root, factory);
+		fIndex = new ZipIndex(archive.slice());
+	}
+	
+	
+	// get the index of the archive
+	public ZipIndex getIndex() {
+		return fIndex;
+	}
+	
+	
+	@Override
+	protected boolean hasEntry(String name) {
+		return fIndex.hasEntry(name);
+	}
+	
+	
+	@Override
+	protected InputStream openEntry(String name) throws IOException {
+		return fIndex.getInputStream(fIndex.getEntry(name));
+	}
+	
+	
+	// the mapping is released by the garbage collector once this factory is no longer referenced
+	@Override
+	public void close() {
+	}
+}
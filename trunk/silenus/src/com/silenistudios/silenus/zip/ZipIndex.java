@@ -0,0 +1,259 @@
+package com.silenistudios.silenus.zip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Index of the central directory of a zip archive that is held in a byte buffer (typically a memory-mapped file).
+ * Building the index only reads the central directory at the end of the archive; the data of an entry
+ * is only touched, and inflated, when the entry is opened.
+ * @author Karel
+ *
+ */
+public class ZipIndex {
+	
+	// signatures
+	private static final int EndOfCentralDirectorySignature = 0x06054b50;
+	private static final int CentralDirectorySignature = 0x02014b50;
+	private static final int LocalHeaderSignature = 0x04034b50;
+	
+	// sizes of the fixed parts of the headers
+	private static final int EndOfCentralDirectorySize = 22;
+	private static final int CentralDirectoryHeaderSize = 46;
+	private static final int LocalHeaderSize = 30;
+	
+	// compression methods
+	private static final int Stored = 0;
+	private static final int Deflated = 8;
+	
+	
+	/**
+	 * A single file in the archive.
+	 */
+	public static class Entry {
+		
+		// name
+		String fName;
+		
+		// compression method
+		int fMethod;
+		
+		// crc of the uncompressed data
+		long fCrc;
+		
+		// compressed size
+		int fCompressedSize;
+		
+		// uncompressed size
+		int fSize;
+		
+		// offset of the local header
+		int fLocalHeaderOffset;
+		
+		
+		// get name
+		public String getName() {
+			return fName;
+		}
+		
+		
+		// get crc of the uncompressed data
+		public long getCrc() {
+			return fCrc;
+		}
+		
+		
+		// get uncompressed size
+		public int getSize() {
+			return fSize;
+		}
+		
+		
+		// get compressed size
+		public int getCompressedSize() {
+			return fCompressedSize;
+		}
+	}
+	
+	
+	// the archive
+	ByteBuffer fBuffer;
+	
+	// all file entries, by name
+	Map<String, Entry> fEntries = new HashMap<String, Entry>();
+	
+	
+	// index an archive
+	public ZipIndex(ByteBuffer buffer) throws IOException {
+		fBuffer = buffer.duplicate();
+		fBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		
+		// find the end of central directory record - it is followed by a comment of at most 64k
+		int end = -1;
+		int limit = fBuffer.limit();
+		for (int i = limit - EndOfCentralDirectorySize; i >= 0 && i >= limit - EndOfCentralDirectorySize - 0xFFFF; --i) {
+			if (fBuffer.getInt(i) == EndOfCentralDirectorySignature) {
+				end = i;
+				break;
+			}
+		}
+		if (end == -1) throw new ZipException("Not a zip archive: end of central directory not found");
+		
+		// read the location of the central directory
+		int nEntries = fBuffer.getShort(end + 10) & 0xFFFF;
+		long directoryOffset = fBuffer.getInt(end + 16) & 0xFFFFFFFFL;
+		if (directoryOffset >= limit) throw new ZipException("Invalid central directory offset (zip64 archives are not supported)");
+		
+		// read all entries
+		int offset = (int)directoryOffset;
+		for (int i = 0; i < nEntries; ++i) {
+			if (offset + CentralDirectoryHeaderSize > limit || fBuffer.getInt(offset) != CentralDirectorySignature) throw new ZipException("Invalid central directory header");
+			Entry entry = new Entry();
+			entry.fMethod = fBuffer.getShort(offset + 10) & 0xFFFF;
+			entry.fCrc = fBuffer.getInt(offset + 16) & 0xFFFFFFFFL;
+			long compressedSize = fBuffer.getInt(offset + 20) & 0xFFFFFFFFL;
+			long size = fBuffer.getInt(offset + 24) & 0xFFFFFFFFL;
+			int nameLength = fBuffer.getShort(offset + 28) & 0xFFFF;
+			int extraLength = fBuffer.getShort(offset + 30) & 0xFFFF;
+			int commentLength = fBuffer.getShort(offset + 32) & 0xFFFF;
+			long localHeaderOffset = fBuffer.getInt(offset + 42) & 0xFFFFFFFFL;
+			if (compressedSize >= Integer.MAX_VALUE || size >= Integer.MAX_VALUE || localHeaderOffset >= limit) throw new ZipException("Entry too large (zip64 archives are not supported)");
+			entry.fCompressedSize = (int)compressedSize;
+			entry.fSize = (int)size;
+			entry.fLocalHeaderOffset = (int)localHeaderOffset;
+			entry.fName = readName(offset + CentralDirectoryHeaderSize, nameLength);
+			
+			// directories are not indexed
+			if (!entry.fName.endsWith("/")) fEntries.put(entry.fName, entry);
+			
+			// next
+			offset += CentralDirectoryHeaderSize + nameLength + extraLength + commentLength;
+		}
+	}
+	
+	
+	// read an entry name
+	private String readName(int offset, int length) throws ZipException {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; ++i) bytes[i] = fBuffer.get(offset + i);
+		try {
+			
+			// java.util.zip also reads names without the utf-8 flag as utf-8
+			return new String(bytes, "UTF-8");
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new ZipException("UTF-8 not supported");
+		}
+	}
+	
+	
+	// get an entry, or null if it does not exist
+	public Entry getEntry(String name) {
+		return fEntries.get(name);
+	}
+	
+	
+	// is there an entry with this name?
+	public boolean hasEntry(String name) {
+		return fEntries.containsKey(name);
+	}
+	
+	
+	// get the number of files in the archive
+	public int size() {
+		return fEntries.size();
+	}
+	
+	
+	// open an entry - the data is inflated while it is read
+	public InputStream getInputStream(Entry entry) throws IOException {
+		
+		// the data follows the local header, which has its own name and extra field lengths
+		int offset = entry.fLocalHeaderOffset;
+		if (offset + LocalHeaderSize > fBuffer.limit() || fBuffer.getInt(offset) != LocalHeaderSignature) throw new ZipException("Invalid local header for entry '" + entry.fName + "'");
+		int dataOffset = offset + LocalHeaderSize + (fBuffer.getShort(offset + 26) & 0xFFFF) + (fBuffer.getShort(offset + 28) & 0xFFFF);
+		if (dataOffset + entry.fCompressedSize > fBuffer.limit()) throw new ZipException("Truncated data for entry '" + entry.fName + "'");
+		
+		// our own view of the data
+		ByteBuffer data = fBuffer.duplicate();
+		data.position(dataOffset);
+		data.limit(dataOffset + entry.fCompressedSize);
+		InputStream in = new ByteBufferInputStream(data);
+		
+		// stored data is served as is
+		if (entry.fMethod == Stored) return in;
+		if (entry.fMethod != Deflated) throw new ZipException("Unsupported compression method " + entry.fMethod + " for entry '" + entry.fName + "'");
+		return new EntryInputStream(in, entry.fSize);
+	}
+	
+	
+	/**
+	 * Inflates the raw deflate data of an entry.
+	 */
+	private static class EntryInputStream extends InflaterInputStream {
+		
+		// number of uncompressed bytes left
+		int fRemaining;
+		
+		// reached the end of the compressed data
+		boolean fEOF = false;
+		
+		// closed?
+		boolean fClosed = false;
+		
+		
+		// create
+		public EntryInputStream(InputStream in, int size) {
+			super(in, new Inflater(true), Math.max(512, Math.min(size, 8192)));
+			fRemaining = size;
+		}
+		
+		
+		// raw inflaters need an extra dummy byte after the data
+		@Override
+		protected void fill() throws IOException {
+			if (fEOF) throw new EOFException("Unexpected end of ZLIB input stream");
+			len = in.read(buf, 0, buf.length);
+			if (len == -1) {
+				buf[0] = 0;
+				len = 1;
+				fEOF = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+		
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) fRemaining -= n;
+			return n;
+		}
+		
+		
+		@Override
+		public int available() throws IOException {
+			if (fClosed) return 0;
+			return Math.max(0, fRemaining);
+		}
+		
+		
+		// release the native inflater as soon as we're done
+		@Override
+		public void close() throws IOException {
+			if (fClosed) return;
+			fClosed = true;
+			inf.end();
+			super.close();
+		}
+	}
+}